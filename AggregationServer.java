@@ -7,6 +7,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 
 /**
  * AggregationServer
@@ -15,24 +16,68 @@ public class AggregationServer {
     private SocketServer socketServer;
     private Lamport clock;
     private int port;
-    private boolean isDown;
+    private volatile boolean isDown;
+    private volatile boolean running;
     private LinkedBlockingQueue<Socket> reqQueue;
-    private static DatabaseManagement db = DatabaseManagement.initialize();
+    private final ShardedDatabase db;
     private long EXPIRY = 40000; // 40 seconds
+    private int workerCount = 1;
+    private boolean virtualWorkers;
+    private boolean blockingDispatch;
+    private ExecutorService workers;
+    private Thread dispatchThread;
+    private ExecutionMode executionMode = ExecutionMode.QUEUE;
+    private boolean standalone;
+    private ThreadFactory connectionThreads;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Map<Socket, Handover> handovers = new ConcurrentHashMap<>();
+    private volatile LongConsumer latencyListener;
+    private final List<Replicator> replicators = new CopyOnWriteArrayList<>();
+    private long keepAliveTimeout = 15000;
+    // pipelined requests a queue worker answers in a row before other clients get a turn
+    private static final int PIPELINE_BURST = 32;
+    // kept-alive connections waiting for their next request, closed when the server stops
+    private final Set<Socket> idleConnections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A client handed to this server, waiting in the queue or being served.
+     */
+    private static class Handover {
+        private final long arrivedAt = System.nanoTime();
+        private final HttpRequest request;
+
+        private Handover(HttpRequest request) {
+            this.request = request;
+        }
+    }
 
     public AggregationServer(SocketServer socketServer) {
+        this(socketServer, ShardedDatabase.initialize());
+    }
+
+    /**
+     * @param socketServer The socket server to serve clients on.
+     * @param db The store of this server; servers behind one MainAggregationServer share the same one.
+     */
+    public AggregationServer(SocketServer socketServer, ShardedDatabase db) {
         this.socketServer = socketServer;
         this.clock = new Lamport();
         this.reqQueue = new LinkedBlockingQueue<>();
+        this.db = db;
     }
 
    
 
     /**
      * Checks if the server is currently running and accessible.
+     * Servers fed by MainAggregationServer never accept on their own port, so a connection probe would only
+     * fill its listen backlog; they report their in-memory state instead. Standalone servers are pinged.
      * @return true if the server is up and responding, false otherwise.
      */
     public boolean isUp() {
+        if (!this.standalone) {
+            return this.running && !this.isDown;
+        }
         try {
             Socket ping = new Socket();
             System.out.println("ping to server: " + this.port);
@@ -44,22 +89,124 @@ public class AggregationServer {
         }
     }
 
+    /**
+     * Sets how many workers process queued requests in parallel.
+     * Must be called before start. One worker keeps the original single threaded behaviour.
+     * @param count The number of workers.
+     * @param virtual Whether extra workers run on virtual threads (falls back to platform threads).
+     */
+    public void configureWorkers(int count, boolean virtual) {
+        this.workerCount = Math.max(1, count);
+        this.virtualWorkers = virtual;
+    }
+
+    /**
+     * Chooses between polling the request queue every 10 ms and blocking on take().
+     * Blocking dispatch keeps idle servers from waking up constantly.
+     * @param blocking true to block on take().
+     */
+    public void setBlockingDispatch(boolean blocking) {
+        this.blockingDispatch = blocking;
+    }
+
+    /**
+     * Chooses whether sockets go through the request queue or run on their own thread each.
+     * @param mode The execution mode.
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.executionMode = mode;
+    }
+
+    /**
+     * Standalone servers accept clients on their own port instead of receiving them from MainAggregationServer.
+     * Must be called before start.
+     * @param standalone true to run an accept loop on the server port.
+     */
+    public void setStandalone(boolean standalone) {
+        this.standalone = standalone;
+    }
+
     /**
      * Starts the AggregationServer on the specified port.
      * Initializes the server socket and begins processing client requests.
+     * The calling thread becomes one of the workers and returns once the server is stopped.
      * @param port The port number on which to start the server.
      */
     public void start(int port) {
         System.out.println("AggregationServer started on: " + port);
         this.port = port;
         this.socketServer.start(port);
+        this.running = true;
+        this.dispatchThread = Thread.currentThread();
+        if (this.standalone) {
+            Thread acceptThread = new Thread(this::acceptLoop, "aggregation-accept-" + port);
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+        if (this.workerCount > 1) {
+            this.workers = ServerThreads.newPool(this.workerCount - 1, "aggregation-" + port, this.virtualWorkers);
+            for (int i = 1; i < this.workerCount; i++) {
+                this.workers.submit(this::processQueue);
+            }
+        }
+        this.processQueue();
+    }
+
+    /**
+     * Accepts clients on this server's own port when running standalone.
+     */
+    private void acceptLoop() {
+        while (!this.isDown) {
+            try {
+                Socket clientSocket = this.socketServer.accept();
+                if (clientSocket == null) continue;
+                if (this.executionMode == ExecutionMode.THREAD_PER_CONNECTION) {
+                    this.connectionThread(() -> this.serve(clientSocket)).start();
+                } else {
+                    this.accept(clientSocket);
+                }
+            } catch (IOException | IllegalStateException e) {
+                if (!this.isDown) e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates a thread for a single connection, virtual when the runtime supports it.
+     * @param task The connection handler.
+     * @return The unstarted thread.
+     */
+    private Thread connectionThread(Runnable task) {
+        if (this.connectionThreads == null) {
+            this.connectionThreads = ServerThreads.factory("aggregation-connection-" + this.port, true);
+        }
+        return this.connectionThreads.newThread(task);
+    }
+
+    /**
+     * Worker loop taking sockets off the request queue until the server stops.
+     */
+    private void processQueue() {
         try {
             while (!this.isDown) {
-                Socket clientSocket = this.reqQueue.poll(10, TimeUnit.MILLISECONDS);
-                if (clientSocket != null) {
-                    handleData(clientSocket);
+                Socket clientSocket = this.blockingDispatch
+                    ? this.reqQueue.take()
+                    : this.reqQueue.poll(10, TimeUnit.MILLISECONDS);
+                if (clientSocket == null) {
+                    continue;
+                }
+                boolean keepAlive = handleData(clientSocket);
+                // answer requests the client pipelined behind this one in order, up to a burst, on this worker
+                for (int i = 1; keepAlive && i < PIPELINE_BURST && this.takePipelinedRequest(clientSocket); i++) {
+                    keepAlive = handleData(clientSocket);
+                }
+                if (keepAlive) {
+                    this.queueNextRequest(clientSocket);
                 }
             }
+        } catch (InterruptedException e) {
+            // stop() interrupts workers blocked on the queue
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -69,18 +216,204 @@ public class AggregationServer {
      * Accepts a new client connection and updates the Lamport clock.
      * @param clientSocket The newly connected client socket.
      * @return The updated Lamport clock time.
+     * @throws IllegalStateException If the server has been stopped; nothing was sent to the client.
      */
     public int accept(Socket clientSocket) {
+        return this.accept(clientSocket, (HttpRequest) null);
+    }
+
+    /**
+     * Queues a client whose request may already have been read by MainAggregationServer.
+     * @param clientSocket The client socket.
+     * @param request The request read by the caller after it sent the greeting itself, or null to greet and read here.
+     * @return The updated Lamport clock time.
+     * @throws IllegalStateException If the server has been stopped; nothing was sent to the client.
+     */
+    public int accept(Socket clientSocket, HttpRequest request) {
+        this.ensureRunning();
         try {
             System.out.println(this.port + " received socket: " + clientSocket);
+            this.outstanding.incrementAndGet();
+            this.handovers.put(clientSocket, new Handover(request));
             this.reqQueue.put(clientSocket);
+            return request == null ? this.greet(clientSocket) : this.tick();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Serves a connection entirely on the calling thread: greeting, request and response.
+     * Used in THREAD_PER_CONNECTION mode where every socket has its own (virtual) thread.
+     * @param clientSocket The newly connected client socket.
+     * @return The Lamport clock time after the greeting.
+     * @throws IllegalStateException If the server has been stopped; nothing was sent to the client.
+     */
+    public int serve(Socket clientSocket) {
+        return this.serve(clientSocket, (HttpRequest) null);
+    }
+
+    /**
+     * Serves a connection on the calling thread, possibly with a request already read by MainAggregationServer.
+     * @param clientSocket The client socket.
+     * @param request The request read by the caller after it sent the greeting itself, or null to greet and read here.
+     * @return The Lamport clock time after the greeting.
+     * @throws IllegalStateException If the server has been stopped; nothing was sent to the client.
+     */
+    public int serve(Socket clientSocket, HttpRequest request) {
+        this.ensureRunning();
+        System.out.println(this.port + " serving socket: " + clientSocket);
+        this.outstanding.incrementAndGet();
+        this.handovers.put(clientSocket, new Handover(request));
+        int lamport = request == null ? this.greet(clientSocket) : this.tick();
+        while (this.handleData(clientSocket) && this.awaitNextRequest(clientSocket, true)) {
+            // kept alive: serve the next request on this thread too
+        }
+        return lamport;
+    }
+
+    /**
+     * Sets how long a kept-alive connection may wait for its next request.
+     * @param millis The idle timeout; 0 closes every connection after one response.
+     */
+    public void setKeepAliveTimeout(long millis) {
+        this.keepAliveTimeout = millis;
+    }
+
+    /**
+     * Queues the next request on a kept-alive connection for the workers once it arrives, off the workers.
+     * An event loop based socket server reports the request from its event loop; otherwise a connection
+     * thread waits for it.
+     * @param clientSocket The kept-alive connection.
+     */
+    private void queueNextRequest(Socket clientSocket) {
+        this.idleConnections.add(clientSocket);
+        boolean watched = !this.isDown && this.socketServer.onNextRequest(clientSocket, this.keepAliveTimeout, next -> {
+            this.idleConnections.remove(clientSocket);
+            this.handOver(clientSocket, next, false);
+        });
+        if (!watched) {
+            this.idleConnections.remove(clientSocket);
+            this.connectionThread(() -> this.awaitNextRequest(clientSocket, false)).start();
+        }
+    }
+
+    /**
+     * Waits for the next request on a kept-alive connection and hands it over like a new client.
+     * @param clientSocket The kept-alive connection.
+     * @param inline true to leave the request for the calling thread, false to queue it for the workers.
+     * @return true if a request arrived, false if the connection was closed.
+     */
+    private boolean awaitNextRequest(Socket clientSocket, boolean inline) {
+        this.idleConnections.add(clientSocket);
+        HttpRequest next = this.isDown ? null : this.socketServer.awaitRequest(clientSocket, this.keepAliveTimeout);
+        this.idleConnections.remove(clientSocket);
+        return this.handOver(clientSocket, next, inline);
+    }
+
+    /**
+     * Hands the next request of a kept-alive connection over like a new client.
+     * @param clientSocket The kept-alive connection.
+     * @param next The request, or null if none arrived.
+     * @param inline true to leave the request for the calling thread, false to queue it for the workers.
+     * @return true if the request was handed over, false if the connection was closed.
+     */
+    private boolean handOver(Socket clientSocket, HttpRequest next, boolean inline) {
+        if (next == null || this.isDown) {
+            this.socketServer.closeConnection(clientSocket);
+            return false;
+        }
+        this.outstanding.incrementAndGet();
+        this.handovers.put(clientSocket, new Handover(next));
+        if (!inline && !this.reqQueue.offer(clientSocket)) {
+            this.handovers.remove(clientSocket);
+            this.outstanding.decrementAndGet();
+            this.socketServer.closeConnection(clientSocket);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a request already pipelined on a kept-alive connection, without waiting for one.
+     * @param clientSocket The kept-alive connection.
+     * @return true if a request was waiting and is now handed over for handleData.
+     */
+    private boolean takePipelinedRequest(Socket clientSocket) {
+        HttpRequest next = this.isDown ? null : this.socketServer.pollRequest(clientSocket);
+        if (next == null) {
+            return false;
+        }
+        this.outstanding.incrementAndGet();
+        this.handovers.put(clientSocket, new Handover(next));
+        return true;
+    }
+
+    /**
+     * @return The number of clients queued on or being served by this server.
+     */
+    public int getOutstandingRequests() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * Streams every PUT accepted by this server to a replica with its own store.
+     * PUTs received from another primary (marked with the Replication header) are not forwarded again.
+     * @param replica The replica's address.
+     * @return The replicator, exposing the replication lag.
+     */
+    public Replicator addReplica(InetSocketAddress replica) {
+        Replicator replicator = new Replicator(replica);
+        this.replicators.add(replicator);
+        replicator.start();
+        return replicator;
+    }
+
+    public List<Replicator> getReplicators() {
+        return this.replicators;
+    }
+
+    /**
+     * Registers a callback receiving the latency in nanoseconds of every handed-over request,
+     * from accept or serve until the response is written.
+     * @param listener The callback, or null to stop reporting.
+     */
+    public void setLatencyListener(LongConsumer listener) {
+        this.latencyListener = listener;
+    }
+
+    /**
+     * Moves the clock forward to a time seen elsewhere in the system, so that servers
+     * taking turns behind a load balancer do not fall behind one another.
+     * @param time The Lamport time to catch up with.
+     */
+    public void syncClock(int time) {
+        this.clock.advanceTo(time);
+    }
+
+    private int tick() {
+        this.clock.tick();
+        return this.clock.getTime();
+    }
+
+    private void ensureRunning() {
+        if (this.isDown) {
+            throw new IllegalStateException("AggregationServer on port " + this.port + " is down");
+        }
+    }
+
+    /**
+     * Sends the Lamport greeting to a new connection and ticks the clock.
+     * @param clientSocket The newly connected client socket.
+     * @return The updated Lamport clock time.
+     */
+    private int greet(Socket clientSocket) {
+        try {
             String c = "Lamport: " + this.clock.getTime();
-            PrintWriter send = new PrintWriter(clientSocket.getOutputStream(), true);
-            send.println(c);
-            send.flush();
+            this.socketServer.send(c, clientSocket);
             this.clock.tick();
             return this.clock.getTime();
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -96,27 +429,44 @@ public class AggregationServer {
     /**
      * Handles incoming data from a client socket.
      * Processes the request and sends an appropriate response.
+     * The connection is closed afterwards unless the request asked for keep-alive.
      * @param clientSocket The client socket to handle.
+     * @return true if the connection was kept open for another request.
      */
-    public void handleData(Socket clientSocket) {
+    public boolean handleData(Socket clientSocket) {
+        Handover handover = this.handovers.remove(clientSocket);
+        boolean keepAlive = false;
         try {
-            String req = this.socketServer.request(clientSocket);
-            System.out.println(req);
-            if (req != null) {
-                String responseData = normalizeReq(req);
+            HttpRequest request = handover != null && handover.request != null
+                ? handover.request
+                : this.socketServer.nextRequest(clientSocket);
+            System.out.println(request);
+            if (request != null) {
+                String responseData = normalizeReq(request);
+                keepAlive = !this.isDown && this.keepAliveTimeout > 0 && request.isKeepAlive();
+                if (keepAlive) {
+                    responseData = responseData.replaceFirst("\r\n", "\r\nConnection: keep-alive\r\n");
+                }
                 System.out.println("Response data to client: " + responseData);
-                this.socketServer.response(responseData, clientSocket);
+                this.socketServer.respond(responseData, clientSocket, keepAlive);
                 
             }
         } catch(Exception e) {
+            keepAlive = false;
             e.printStackTrace();
         } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (!keepAlive) {
+                this.socketServer.closeConnection(clientSocket);
+            }
+            if (handover != null) {
+                this.outstanding.decrementAndGet();
+                LongConsumer listener = this.latencyListener;
+                if (listener != null) {
+                    listener.accept(System.nanoTime() - handover.arrivedAt);
+                }
             }
         }
+        return keepAlive;
     }
 
     /**
@@ -126,33 +476,20 @@ public class AggregationServer {
      * @return The response to be sent back to the client.
     */
     public String normalizeReq(String requestData) {
-        String[] lines = requestData.split("\r\n");
-        String requestType = lines[0].split(" ")[0].trim();
-
-        Map<String, String> headers = new HashMap<>();
-        StringBuilder contentBuilder = new StringBuilder();
-
-        boolean readingContent = false;
-
-        for (int i = 1; i < lines.length; i++) {
-            if (!readingContent) {
-                if (lines[i].isEmpty()) {
-                    readingContent = true;
-                } else {
-                    String[] headerParts = lines[i].split(": ", 2);
-                    headers.put(headerParts[0], headerParts[1]);
-                }
-            } else {
-                contentBuilder.append(lines[i]);
-            }
-        }
+        return normalizeReq(HttpRequestParser.parse(requestData));
+    }
 
-        String content = contentBuilder.toString();
-        switch (requestType.toUpperCase()) {
+    /**
+     * Processes a parsed request: GET or PUT.
+     * @param request The request; a PUT body goes straight from its bytes to the JSON decoder.
+     * @return The response to be sent back to the client.
+     */
+    public String normalizeReq(HttpRequest request) {
+        switch (request.getMethod().toUpperCase()) {
             case "GET":
-            return handleGetRequest(headers);
+            return handleGetRequest(request.getHeaders());
             case "PUT":
-            return handlePutRequest(content, headers);
+            return isBatch(request) ? handleBatchPutRequest(request) : handlePutRequest(request);
             default:
             return formatRes("400 Bad Request", null);
         }
@@ -161,26 +498,34 @@ public class AggregationServer {
     /**
      * Handles PUT requests from content servers.
      * Updates the weather data in the database.
-     * @param content The JSON content of the PUT request.
-     * @param headers The headers of the PUT request.
+     * @param request The PUT request with its JSON body and headers.
      * @return The response to be sent back to the content server.
      */
-    private String handlePutRequest(String content, Map<String, String> headers) {
+    private String handlePutRequest(HttpRequest request) {
+        Map<String, String> headers = request.getHeaders();
         try {
             this.ensureClockConsistency();
-            JsonObject jsonData = JsonHandling.convertObject(content, JsonObject.class);
-            String id = getIdData(jsonData);
+            WeatherReading reading = WeatherReading.read(request.bodyReader());
+            String id = reading.getId();
             if (id == null && id.isEmpty()) {
                 return formatRes("500 Internal Server Error", null);
             }
             
             String source = headers.get("Source");
-            long currTime = System.currentTimeMillis();
+            // replicated PUTs carry the time the primary last heard from the sender
+            String replicated = headers.get(Replicator.HEADER);
+            long currTime = replicated != null ? Long.parseLong(replicated) : System.currentTimeMillis();
             Long latest = db.getSenderTimestamp(source);
 
-            db.saveTime(source, currTime);
-            WeatherFormat newWeatherData = new WeatherFormat(this.getLamport(headers), source, jsonData);
-            db.saveData(id, newWeatherData);
+            db.saveTime(id, source, currTime);
+            WeatherFormat newWeatherData = WeatherFormat.of(this.getLamport(headers), source, reading);
+            // Only acknowledge once the batch holding this record is durable
+            db.saveData(id, newWeatherData).join();
+            if (replicated == null) {
+                for (Replicator replicator : this.replicators) {
+                    replicator.replicate(id, newWeatherData, currTime);
+                }
+            }
             
             if (latest == null || (currTime - latest) > EXPIRY) {
                 return formatRes("201 HTTP_CREATED", null);
@@ -192,6 +537,79 @@ public class AggregationServer {
         }
     }
 
+    /**
+     * A batch PUT carries a JSON array or is sent as NDJSON.
+     */
+    private static boolean isBatch(HttpRequest request) {
+        String type = request.getHeader("Content-Type");
+        return (type != null && type.startsWith(JsonHandling.NDJSON_TYPE)) || request.bodyStartsWith('[');
+    }
+
+    /**
+     * Handles a batch PUT from a content server reporting many stations: a JSON array or NDJSON stream of readings.
+     * The readings take consecutive Lamport times starting at the request's clock, are saved with a single
+     * log flush, and are acknowledged together with a status per reading in request order.
+     * @param request The PUT request with its array or NDJSON body.
+     * @return 200 with the per-reading statuses, or 400 if no reading could be applied.
+     */
+    private String handleBatchPutRequest(HttpRequest request) {
+        Map<String, String> headers = request.getHeaders();
+        List<WeatherReading> items;
+        try {
+            items = WeatherReading.readAll(request.bodyReader());
+        } catch (JsonParseException e) {
+            return formatRes("400 Bad Request", null);
+        }
+        try {
+            this.ensureClockConsistency();
+            String source = headers.get("Source");
+            String replicated = headers.get(Replicator.HEADER);
+            long currTime = replicated != null ? Long.parseLong(replicated) : System.currentTimeMillis();
+            int lamport = this.getLamport(headers);
+
+            List<Map.Entry<String, WeatherFormat>> records = new ArrayList<>();
+            JsonArray statuses = new JsonArray();
+            for (int i = 0; i < items.size(); i++) {
+                WeatherReading item = items.get(i);
+                String id = item != null ? item.getId() : null;
+                JsonObject status = new JsonObject();
+                status.addProperty("index", i);
+                if (id == null || id.isEmpty()) {
+                    status.addProperty("status", "400 Bad Request");
+                    statuses.add(status);
+                    continue;
+                }
+                Long latest = db.getSenderTimestamp(source);
+                db.saveTime(id, source, currTime);
+                records.add(Map.entry(id, WeatherFormat.of(lamport + records.size(), source, item)));
+                status.addProperty("id", id);
+                status.addProperty("status", latest == null || (currTime - latest) > EXPIRY ? "201 HTTP_CREATED" : "200 OK");
+                statuses.add(status);
+            }
+            if (records.isEmpty()) {
+                return formatRes("400 Bad Request", null);
+            }
+            // keep the clock ahead of the last reading of the batch
+            this.clock.advanceTo(lamport + records.size());
+            db.saveAll(records).join();
+            if (replicated == null) {
+                for (Map.Entry<String, WeatherFormat> record : records) {
+                    for (Replicator replicator : this.replicators) {
+                        replicator.replicate(record.getKey(), record.getValue(), currTime);
+                    }
+                }
+            }
+
+            JsonObject body = new JsonObject();
+            body.add("items", statuses);
+            boolean compact = JsonHandling.wantsCompact(headers.get("Accept"));
+            return formatBody("200 OK", new ResponseCache.Body(JsonHandling.serialize(body, compact)), compact);
+        } catch (Exception e) {
+            System.out.println(e);
+            return formatRes("500 Internal Server Error", null);
+        }
+    }
+
     /**
      * Ensures consistency of the Lamport clock with stored data.
      * @return true if the clock was adjusted, false otherwise.
@@ -217,21 +635,54 @@ public class AggregationServer {
         boolean isUpdateLamport = this.ensureClockConsistency();
         int lamport = this.getLamport(headers);
         int updatedLamport = isUpdateLamport ? Math.max(this.clock.getTime(), lamport) : lamport;
+        boolean compact = JsonHandling.wantsCompact(headers.get("Accept"));
+        if (headers.get("StationIDs") != null) {
+            return handleBulkGetRequest(headers.get("StationIDs"), updatedLamport, compact);
+        }
         String stationId = headers.get("StationID") != null ? headers.get("StationID") : db.getStationID();
         if(stationId == null) return formatRes("204 No Content", null);
         System.out.println("Latest Station ID: " + stationId);
-        LinkedList<WeatherFormat> data = db.getWeatherData(stationId);
-        if(data == null) return formatRes("204 No Content", null);
-        WeatherFormat latestData = data.stream().filter(d -> d.getLamport() <= updatedLamport).max(Comparator.comparingInt(WeatherFormat::getLamport)).orElse(null);
+        ResponseCache.Station cached = db.getResponseCache().station(stationId);
+        WeatherFormat latestData = db.getLatest(stationId, updatedLamport);
         System.out.println("Latest: " + latestData);
         
         if (latestData != null) {
-            return formatRes("200 OK", latestData.getData());
+            return formatBody("200 OK", cached.get(latestData.getLamport(), compact, () -> JsonHandling.serialize(latestData.getReading(), compact)), compact);
         } else {
             return formatRes("204 No Content", null);
         }
     }
 
+    /**
+     * Handles a GET for several stations at once, e.g. a dashboard showing every station.
+     * The body is a JSON object keyed by station ID, assembled from the cached per-station bodies
+     * without serializing the readings again. Each reading is the latest one not after the requested clock;
+     * stations without such a reading are left out.
+     * @param stationList Comma separated station IDs, or "*" for every station.
+     * @param lamport The requested Lamport clock.
+     * @param compact Whether compact JSON was negotiated.
+     * @return The response with every matching reading, or 204 if there is none.
+     */
+    private String handleBulkGetRequest(String stationList, int lamport, boolean compact) {
+        Collection<String> stations = stationList.trim().equals("*")
+            ? db.getStationIDs()
+            : new LinkedHashSet<>(Arrays.asList(stationList.split("\\s*,\\s*")));
+        StringBuilder body = new StringBuilder("{");
+        for (String stationId : stations) {
+            if (stationId.isEmpty()) continue;
+            ResponseCache.Station cached = db.getResponseCache().station(stationId);
+            WeatherFormat latestData = db.getLatest(stationId, lamport);
+            if (latestData == null) continue;
+            ResponseCache.Body reading = cached.get(latestData.getLamport(), compact, () -> JsonHandling.serialize(latestData.getReading(), compact));
+            if (body.length() > 1) body.append(',');
+            body.append(JsonHandling.convertJSON(stationId)).append(':').append(reading.getJson());
+        }
+        if (body.length() == 1) {
+            return formatRes("204 No Content", null);
+        }
+        return formatBody("200 OK", new ResponseCache.Body(body.append('}').toString()), compact);
+    }
+
     /**
      * Extracts the station ID from the JSON data.
      * @param jsonData The JSON object containing weather data.
@@ -276,16 +727,26 @@ public class AggregationServer {
      * @return The formatted HTTP response as a string.
      */
     private String formatRes(String status, JsonObject jsonData) {
+        return formatBody(status, jsonData != null ? new ResponseCache.Body(JsonHandling.prettier(jsonData)) : null, false);
+    }
+
+    /**
+     * Formats the HTTP response around an already serialized body.
+     * @param status The HTTP status code and message.
+     * @param body The serialized body with its length (if any).
+     * @param compact Whether the body is compact JSON.
+     * @return The formatted HTTP response as a string.
+     */
+    private String formatBody(String status, ResponseCache.Body body, boolean compact) {
         StringBuilder res = new StringBuilder();
 
         res.append("HTTP/1.1 ").append(status).append("\r\n");
         res.append("Lamport: ").append(this.clock.getTime()).append("\r\n");
-        if (jsonData != null) {
-            String prettyData = JsonHandling.prettier(jsonData);
-            res.append("Content-Type: application/json\r\n");
-            res.append("Content-Length: ").append(prettyData.length()).append("\r\n");
+        if (body != null) {
+            res.append("Content-Type: ").append(compact ? JsonHandling.COMPACT_TYPE : "application/json").append("\r\n");
+            res.append("Content-Length: ").append(body.getLength()).append("\r\n");
             res.append("\r\n");
-            res.append(prettyData);
+            res.append(body.getJson());
         } else {
             res.append("\r\n");
         }
@@ -298,10 +759,28 @@ public class AggregationServer {
      */
     public void stop() {
         this.isDown = true;
+        for (Replicator replicator : this.replicators) {
+            replicator.stop();
+            System.out.println(replicator);
+        }
+        if (this.workers != null) {
+            this.workers.shutdownNow();
+        }
+        if (this.blockingDispatch && this.dispatchThread != null) {
+            this.dispatchThread.interrupt();
+        }
+        for (Socket idle : this.idleConnections) {
+            this.socketServer.closeConnection(idle);
+        }
         this.socketServer.close();
         System.out.println("Stop AggregationServer on port " + this.port);
     }
 
+    @Override
+    public String toString() {
+        return "AggregationServer:" + this.port;
+    }
+
     /**
      * clear data for testing
      */
@@ -310,9 +789,33 @@ public class AggregationServer {
     }
 
     public static void main(String[] args) {
-        int port = 4000;
-        SocketServer socketServer = new SocketServer();
-        AggregationServer aggregationServer = new AggregationServer(socketServer);
+        ServerOptions options = new ServerOptions(args);
+        int port = options.getInt("port", 4000);
+        SocketServer socketServer = options.has("nio") ? new NioSocketServer() : new SocketServer();
+        // --shards=N partitions stations over N stores under --data-dir (default "data")
+        ShardedDatabase.configure(options.getInt("shards", 1), options.get("data-dir", DatabaseManagement.DEFAULT_DIRECTORY));
+        ShardedDatabase db = ShardedDatabase.initialize();
+        AggregationServer aggregationServer = new AggregationServer(socketServer, db);
+        aggregationServer.configureWorkers(options.getInt("workers", 1), options.has("virtual-workers"));
+        aggregationServer.setBlockingDispatch(options.has("blocking-dispatch"));
+        aggregationServer.setExecutionMode(ExecutionMode.fromOption(options.get("exec", "queue")));
+        aggregationServer.setKeepAliveTimeout(options.getInt("keep-alive-ms", 15000));
+        aggregationServer.setStandalone(true);
+        db.setDurability(WriteAheadLog.Durability.fromOption(options.get("durability", "per-request")), options.getInt("batch-ms", 5));
+        db.setHistoryLimits(options.getInt("history", 100), options.getInt("history-age-ms", 0));
+        if (options.has("columnar-history")) {
+            db.setColumnarHistory(true);
+        }
+        if (options.has("mapped-store")) {
+            db.setMappedStore(true);
+        }
+        if (options.has("checkpoints")) {
+            db.setCheckpoints(true);
+        }
+        // --replicas=host:port,... streams accepted PUTs to other AggregationServers
+        if (options.has("replicas")) {
+            ProxyServer.parseBackends(options.get("replicas", "")).forEach(aggregationServer::addReplica);
+        }
         aggregationServer.start(port);
         
     }
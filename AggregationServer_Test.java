@@ -9,6 +9,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -92,6 +94,37 @@ public class AggregationServer_Test {
         server.stop();
     }
 
+    @Test
+    void testHandleGetRequestCompact() {
+        MockSocketServer mockSocket = new MockSocketServer();
+        AggregationServer server = new AggregationServer(mockSocket);
+
+        String putRequest = "PUT /data.json HTTP/1.1\r\n" +
+                            "Content-Type: application/json; format=compact\r\n" +
+                            "Content-Length: 50\r\n" +
+                            "LamportClock: 1\r\n" +
+                            "Source: TestSource\r\n" +
+                            "\r\n" +
+                            "{\"id\":\"IDS60903\",\"name\":\"Compact\",\"air_temp\":20.0}";
+        server.normalizeReq(putRequest);
+
+        String compactResponse = server.normalizeReq("GET /data.json HTTP/1.1\r\n" +
+                            "StationID: IDS60903\r\n" +
+                            "LamportClock: 2\r\n" +
+                            "Accept: application/json; format=compact\r\n" +
+                            "\r\n");
+        assertTrue(compactResponse.contains("Content-Type: application/json; format=compact"));
+        assertTrue(compactResponse.endsWith("\r\n\r\n{\"id\":\"IDS60903\",\"name\":\"Compact\",\"air_temp\":20.0}"), compactResponse);
+
+        String prettyResponse = server.normalizeReq("GET /data.json HTTP/1.1\r\n" +
+                            "StationID: IDS60903\r\n" +
+                            "LamportClock: 3\r\n" +
+                            "\r\n");
+        assertTrue(prettyResponse.contains("Content-Type: application/json\r\n"));
+        assertTrue(prettyResponse.contains("{\n  \"id\": \"IDS60903\""), prettyResponse);
+        server.stop();
+    }
+
     @Test
     void testServerShutdown() throws IOException {
         MockSocketServer mockSocket = new MockSocketServer();
@@ -175,4 +208,313 @@ public class AggregationServer_Test {
         assertEquals(15, jsonObject.get("wind_spd_kmh").getAsInt(), "GET response should contain the correct wind speed");
         server.stop();
     }
+
+    @Test
+    void testWorkerPoolWithBlockingDispatch() throws InterruptedException {
+        AggregationServer server = new AggregationServer(new SocketServer());
+        server.configureWorkers(4, true);
+        server.setBlockingDispatch(true);
+        Thread serverThread = new Thread(() -> server.start(5581));
+        serverThread.start();
+        List<AggregationServer> servers = new ArrayList<>();
+        servers.add(server);
+        MainAggregationServer mainServer = new MainAggregationServer(new SocketServer(), servers);
+        mainServer.start(5580);
+        Thread.sleep(500);
+
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", 5580);
+
+        int clients = 10;
+        JsonObject[] results = new JsonObject[clients];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                GETClient client = new GETClient(new SocketServer());
+                results[index] = client.sendRequest("localhost", 5580, "IDS60901");
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        for (JsonObject res : results) {
+            assertNotNull(res);
+            assertEquals("IDS60901", res.get("id").getAsString());
+        }
+
+        mainServer.shutdown();
+        serverThread.join(2000);
+        assertFalse(serverThread.isAlive(), "Blocked workers should be released by stop()");
+        server.clearData();
+    }
+
+    @Test
+    void testStandaloneThreadPerConnection() throws InterruptedException {
+        AggregationServer server = new AggregationServer(new SocketServer());
+        server.setExecutionMode(ExecutionMode.THREAD_PER_CONNECTION);
+        server.setStandalone(true);
+        new Thread(() -> server.start(5582)).start();
+        Thread.sleep(500);
+
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data2_0.txt"));
+        contentServer.uploadData("localhost", 5582);
+
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject res = client.sendRequest("localhost", 5582, "IDS60902");
+        assertNotNull(res);
+        assertEquals("IDS60902", res.get("id").getAsString());
+        server.stop();
+        server.clearData();
+    }
+
+    @Test
+    void testConcurrentResponsesGoToTheirOwnClients() throws InterruptedException {
+        AggregationServer server = new AggregationServer(new SocketServer());
+        server.setExecutionMode(ExecutionMode.THREAD_PER_CONNECTION);
+        server.setStandalone(true);
+        new Thread(() -> server.start(5625)).start();
+        Thread.sleep(500);
+        int clients = 8;
+        for (int i = 0; i < clients; i++) {
+            String put = "{\"id\":\"IDS8110" + i + "\",\"air_temp\":" + i + "}";
+            server.normalizeReq("PUT /data.json HTTP/1.1\r\nContent-Length: " + put.length() + "\r\nLamportClock: " + (i + 1)
+                + "\r\nSource: ConcurrentSource\r\n\r\n" + put);
+        }
+
+        // every connection thread answers through the one SocketServer at the same time, closing as it goes
+        List<String> mismatches = java.util.Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            String station = "IDS8110" + i;
+            Thread thread = new Thread(() -> {
+                for (int round = 0; round < 20; round++) {
+                    GETClient client = new GETClient(new SocketServer());
+                    client.setKeepAlive(false);
+                    JsonObject res = client.sendRequest("localhost", 5625, station);
+                    String id = res != null ? res.get("id").getAsString() : null;
+                    if (!station.equals(id)) mismatches.add(station + " got " + id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(20000);
+        }
+        assertEquals(List.of(), mismatches);
+        server.stop();
+        server.clearData();
+    }
+
+    /**
+     * SocketServer counting the connections it accepts.
+     */
+    private static SocketServer countingServer(boolean nio, java.util.concurrent.atomic.AtomicInteger accepted) {
+        if (nio) {
+            return new NioSocketServer() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    if (socket != null) accepted.incrementAndGet();
+                    return socket;
+                }
+            };
+        }
+        return new SocketServer() {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = super.accept();
+                if (socket != null) accepted.incrementAndGet();
+                return socket;
+            }
+        };
+    }
+
+    @Test
+    void testKeepAliveReusesConnection() throws InterruptedException {
+        int port = 5583;
+        for (boolean nio : new boolean[] {false, true}) {
+            java.util.concurrent.atomic.AtomicInteger accepted = new java.util.concurrent.atomic.AtomicInteger();
+            AggregationServer server = new AggregationServer(countingServer(nio, accepted));
+            server.setStandalone(true);
+            server.setKeepAliveTimeout(1000);
+            int serverPort = port++;
+            new Thread(() -> server.start(serverPort)).start();
+            Thread.sleep(500);
+
+            ContentServer contentServer = new ContentServer(new SocketServer());
+            GETClient client = new GETClient(new SocketServer());
+            assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+            contentServer.uploadData("localhost", serverPort);
+            assertTrue(contentServer.isLoadFileSuccess("data1_1.txt"));
+            contentServer.uploadData("localhost", serverPort);
+            for (int i = 0; i < 3; i++) {
+                JsonObject res = client.sendRequest("localhost", serverPort, "IDS60901");
+                assertNotNull(res);
+                assertEquals("IDS60901", res.get("id").getAsString());
+            }
+            assertEquals(2, accepted.get(), "One connection per client (nio=" + nio + ")");
+
+            // the server closes idle connections; the next request reconnects transparently
+            Thread.sleep(1500);
+            assertNotNull(client.sendRequest("localhost", serverPort, "IDS60901"));
+            assertEquals(3, accepted.get());
+            // a PUT is not resent after a failure, so the closed connection is noticed before sending it
+            contentServer.uploadData("localhost", serverPort);
+            assertEquals(4, accepted.get());
+
+            contentServer.shutdown();
+            client.shutdown();
+            server.stop();
+            server.clearData();
+        }
+    }
+
+    @Test
+    void testPipelinedRequestsAnsweredInOrder() throws Exception {
+        int port = 5620;
+        for (boolean nio : new boolean[] {false, true}) {
+            java.util.concurrent.atomic.AtomicInteger accepted = new java.util.concurrent.atomic.AtomicInteger();
+            AggregationServer server = new AggregationServer(countingServer(nio, accepted));
+            server.setStandalone(true);
+            int serverPort = port++;
+            new Thread(() -> server.start(serverPort)).start();
+            Thread.sleep(500);
+
+            // buffered readings for two stations go out in one burst on one connection
+            ContentServer contentServer = new ContentServer(new SocketServer());
+            assertTrue(contentServer.bufferFile("data1_0.txt"));
+            assertTrue(contentServer.bufferFile("data2_0.txt"));
+            assertTrue(contentServer.bufferFile("data1_1.txt"));
+            assertEquals(3, contentServer.uploadBuffered("localhost", serverPort));
+            assertEquals(0, contentServer.getBufferedCount());
+            assertEquals(1, accepted.get(), "nio=" + nio);
+
+            // mixed GET and PUT pipelined on one connection come back in request order
+            String put = JsonHandling.serialize(JsonHandling.convertTextToJson(JsonHandling.read("data2_1.txt")), true);
+            SocketServer pipelining = new SocketServer();
+            pipelining.initializeSocketandGetLamport("localhost", serverPort);
+            List<String> responses = pipelining.pipeline("localhost", serverPort, List.of(
+                "GET /data.json HTTP/1.1\r\nLamportClock: 1000\r\nConnection: keep-alive\r\nStationID: IDS60901\r\n\r\n",
+                "PUT /data.json HTTP/1.1\r\nContent-Length: " + put.length() + "\r\nLamportClock: 1001\r\nSource: pipelined\r\n"
+                    + "Connection: keep-alive\r\nStationID: IDS60902\r\n\r\n" + put,
+                "GET /data.json HTTP/1.1\r\nLamportClock: 1002\r\nStationID: IDS60902\r\n\r\n"));
+            assertEquals(3, responses.size());
+            assertTrue(responses.get(0).startsWith("HTTP/1.1 200"), responses.get(0));
+            assertEquals("40", body(responses.get(0)).get("lat").getAsString());
+            assertTrue(responses.get(1).startsWith("HTTP/1.1 20"), responses.get(1));
+            assertEquals("20", body(responses.get(2)).get("air_temp").getAsString());
+            assertEquals(2, accepted.get());
+
+            contentServer.shutdown();
+            pipelining.close();
+            server.stop();
+            server.clearData();
+        }
+    }
+
+    @Test
+    void testBatchPut() throws InterruptedException {
+        MockSocketServer mockSocket = new MockSocketServer();
+        AggregationServer server = new AggregationServer(mockSocket);
+
+        String ndjson = "{\"id\":\"IDS70001\",\"air_temp\":1.5}\n" +
+                        "{\"name\":\"no id\"}\n" +
+                        "{\"id\":\"IDS70002\",\"air_temp\":2.5}\n" +
+                        "{\"id\":\"IDS70001\",\"air_temp\":3.5}\n";
+        String response = server.normalizeReq("PUT /data.json HTTP/1.1\r\n" +
+                            "Content-Type: application/x-ndjson\r\n" +
+                            "Content-Length: " + ndjson.length() + "\r\n" +
+                            "LamportClock: 10\r\n" +
+                            "Source: BatchSource\r\n" +
+                            "\r\n" + ndjson);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        com.google.gson.JsonArray items = body(response).getAsJsonArray("items");
+        assertEquals(4, items.size());
+        assertEquals("201 HTTP_CREATED", items.get(0).getAsJsonObject().get("status").getAsString());
+        assertEquals("400 Bad Request", items.get(1).getAsJsonObject().get("status").getAsString());
+        assertEquals("IDS70002", items.get(2).getAsJsonObject().get("id").getAsString());
+        // a second reading for the same station in the batch is newer and not the sender's first
+        assertEquals("200 OK", items.get(3).getAsJsonObject().get("status").getAsString());
+
+        String latest = server.normalizeReq("GET /data.json HTTP/1.1\r\nStationID: IDS70001\r\nLamportClock: 20\r\n\r\n");
+        assertEquals("3.5", body(latest).get("air_temp").getAsString());
+        assertTrue(server.getHighestLamport() >= 12);
+
+        // arrays are accepted as well, and a body without any valid reading is rejected
+        String array = "[{\"id\":\"IDS70003\",\"air_temp\":4.5}]";
+        assertTrue(server.normalizeReq("PUT /data.json HTTP/1.1\r\nLamportClock: 21\r\nSource: BatchSource\r\n\r\n" + array)
+            .startsWith("HTTP/1.1 200"));
+        assertTrue(server.normalizeReq("PUT /data.json HTTP/1.1\r\nLamportClock: 22\r\nSource: BatchSource\r\n\r\n[1, 2]")
+            .contains("400 Bad Request"));
+        server.stop();
+
+        // ContentServer sends its buffered readings as one NDJSON PUT
+        AggregationServer live = new AggregationServer(new SocketServer());
+        live.setStandalone(true);
+        new Thread(() -> live.start(5622)).start();
+        Thread.sleep(500);
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.bufferFile("data1_0.txt"));
+        assertTrue(contentServer.bufferFile("data2_0.txt"));
+        contentServer.bufferReading(new JsonObject());
+        assertEquals(2, contentServer.uploadBatch("localhost", 5622));
+        assertEquals(1, contentServer.getBufferedCount(), "The reading without an id stays buffered");
+        GETClient client = new GETClient(new SocketServer());
+        assertEquals("IDS60902", client.sendRequest("localhost", 5622, "IDS60902").get("id").getAsString());
+        contentServer.shutdown();
+        client.shutdown();
+        live.stop();
+        live.clearData();
+    }
+
+    @Test
+    void testBulkGet() throws InterruptedException {
+        AggregationServer server = new AggregationServer(new SocketServer());
+        // "*" lists every station of the shared store, so start from an empty one
+        server.clearData();
+        server.setStandalone(true);
+        new Thread(() -> server.start(5623)).start();
+        Thread.sleep(500);
+        int lamport = 1;
+        for (String station : new String[] {"IDS80003", "IDS80001", "IDS80002"}) {
+            String put = "{\"id\":\"" + station + "\",\"air_temp\":" + lamport + "}";
+            server.normalizeReq("PUT /data.json HTTP/1.1\r\nContent-Length: " + put.length() + "\r\nLamportClock: " + lamport
+                + "\r\nSource: BulkSource\r\n\r\n" + put);
+            lamport += 4;
+        }
+
+        // every station, each reading no later than the requested clock
+        String all = server.normalizeReq("GET /data.json HTTP/1.1\r\nStationIDs: *\r\nLamportClock: 6\r\n\r\n");
+        assertTrue(all.contains("200 OK"), all);
+        JsonObject stations = body(all);
+        assertEquals(List.of("IDS80001", "IDS80003"), new ArrayList<>(stations.keySet()));
+        assertEquals("5", stations.getAsJsonObject("IDS80001").get("air_temp").getAsString());
+
+        // a list keeps its order and leaves out unknown stations
+        String some = server.normalizeReq("GET /data.json HTTP/1.1\r\nStationIDs: IDS80002, unknown,IDS80003\r\n"
+            + "Accept: application/json; format=compact\r\nLamportClock: 20\r\n\r\n");
+        assertEquals(List.of("IDS80002", "IDS80003"), new ArrayList<>(body(some).keySet()));
+        assertTrue(server.normalizeReq("GET /data.json HTTP/1.1\r\nStationIDs: unknown\r\nLamportClock: 20\r\n\r\n")
+            .contains("204 No Content"));
+
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject bulk = client.sendBulkRequest("localhost", 5623, null);
+        assertNotNull(bulk);
+        assertEquals(3, bulk.size());
+        assertEquals("9", client.sendBulkRequest("localhost", 5623, List.of("IDS80002"))
+            .getAsJsonObject("IDS80002").get("air_temp").getAsString());
+        client.shutdown();
+        server.stop();
+        server.clearData();
+    }
+
+    private static JsonObject body(String response) {
+        return JsonParser.parseString(response.substring(response.indexOf("\r\n\r\n") + 4)).getAsJsonObject();
+    }
 }
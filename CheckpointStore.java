@@ -0,0 +1,422 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned binary checkpoints of a store: the station histories and the sender timestamps.
+ * A full snapshot is written now and then; in between, each compaction only writes a delta with the mutations
+ * since the previous checkpoint, so persisting costs as much as what changed rather than the whole data set.
+ * Every file ends with a CRC32 of its contents and is written to a temporary file and moved into place.
+ *
+ * checkpoint-G.snap is the snapshot of generation G and checkpoint-G-S.delta its deltas, S counting from 1.
+ * The changes pending when a new snapshot is due are first sealed as the last delta of the current generation,
+ * so a snapshot plus all deltas of its generation equals the next snapshot. Recovery starts from the newest
+ * snapshot that verifies and rolls forward through every delta after it, up to the first missing or corrupt one.
+ * The previous generation is kept as that fallback.
+ */
+public class CheckpointStore {
+    static final int MAGIC = 0x57534350;
+    static final int VERSION = 1;
+    private static final byte SNAPSHOT = 1;
+    private static final byte DELTA = 2;
+    private static final byte PUT = 1;
+    private static final byte EXPIRE = 2;
+    private static final byte CLEAR = 3;
+    private static final Pattern FILE = Pattern.compile("checkpoint-(\\d+)(?:-(\\d+)\\.delta|\\.snap)");
+
+    private final Path directory;
+    // generation and last delta written or recovered, 0 when there is none
+    private long generation;
+    private int sequence;
+    private long snapshotBytes;
+    private long deltaBytes;
+    // set when recovery skipped a file, so the chain is restarted with a new snapshot
+    private boolean snapshotForced;
+
+    /**
+     * Receives what recovery reads, in order: the snapshot's records and senders, then every delta's.
+     */
+    public interface Recovery {
+        void record(String station, WeatherFormat record);
+
+        void sender(String source, long time);
+
+        void entry(WriteAheadLog.Entry entry);
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @param directory The directory holding the checkpoint files, shared with the rest of the store.
+     */
+    public CheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return true if the directory holds any checkpoint file.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public boolean exists() throws IOException {
+        return !this.list().isEmpty();
+    }
+
+    /**
+     * Loads the newest valid snapshot and the deltas written after it.
+     * Corrupt files are reported and skipped; nothing of a file is applied unless its checksum verifies.
+     * @param recovery Receives the recovered data.
+     * @return true if a snapshot was loaded, false if there is no valid one.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public boolean recover(Recovery recovery) throws IOException {
+        TreeMap<Long, TreeSet<Integer>> files = this.list();
+        if (files.isEmpty()) {
+            return false;
+        }
+        this.generation = files.lastKey();
+        this.snapshotForced = true;
+        boolean skipped = false;
+        for (long start : files.descendingKeySet()) {
+            Path path = this.snapshotPath(start);
+            if (!Files.exists(path)) continue;
+            try {
+                this.readSnapshot(path, start, recovery);
+            } catch (IOException e) {
+                System.out.println("Skipping checkpoint " + path.getFileName() + ": " + e.getMessage());
+                skipped = true;
+                continue;
+            }
+            this.snapshotBytes = Files.size(path);
+            this.snapshotForced = !this.rollForward(files, start, recovery) || skipped;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the deltas of every generation from start on, until one is missing or corrupt.
+     * @return true if every delta was applied.
+     */
+    private boolean rollForward(TreeMap<Long, TreeSet<Integer>> files, long start, Recovery recovery) {
+        for (long g = start; g <= files.lastKey(); g++) {
+            this.deltaBytes = 0;
+            int sequence = 0;
+            for (int s : files.getOrDefault(g, new TreeSet<>())) {
+                Path path = this.deltaPath(g, s);
+                if (s != sequence + 1) {
+                    System.out.println("Checkpoint delta missing before " + path.getFileName());
+                    return false;
+                }
+                try {
+                    this.readDelta(path, g, s, recovery);
+                    this.deltaBytes += Files.size(path);
+                } catch (IOException e) {
+                    System.out.println("Stopping recovery at checkpoint " + path.getFileName() + ": " + e.getMessage());
+                    return false;
+                }
+                sequence = s;
+            }
+            // a generation's deltas only lead into the next one if its snapshot was written
+            if (g < files.lastKey() && !Files.exists(this.snapshotPath(g + 1))) {
+                return false;
+            }
+            this.sequence = sequence;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the next checkpoint should be a full snapshot: there is none yet, recovery had to skip a
+     *         file, or the deltas have grown past the snapshot so replaying them would cost more than reading one.
+     */
+    public boolean snapshotDue() {
+        return this.generation == 0 || this.snapshotForced || this.deltaBytes > this.snapshotBytes;
+    }
+
+    /**
+     * Writes a full snapshot as a new generation. Pending changes must have been written with writeDelta first.
+     * Generations older than the previous one are deleted.
+     * @param stations Every station with its records in Lamport order.
+     * @param senders Every sender timestamp.
+     * @throws IOException If the snapshot cannot be written; the previous checkpoints stay in place.
+     */
+    public void writeSnapshot(Map<String, List<WeatherFormat>> stations, Map<String, Long> senders) throws IOException {
+        long next = this.generation + 1;
+        Path path = this.snapshotPath(next);
+        this.snapshotBytes = this.write(path, SNAPSHOT, next, 0, out -> {
+            out.writeInt(stations.size());
+            for (Map.Entry<String, List<WeatherFormat>> station : stations.entrySet()) {
+                writeString(out, station.getKey());
+                out.writeInt(station.getValue().size());
+                for (WeatherFormat record : station.getValue()) {
+                    writeRecord(out, record);
+                }
+            }
+            writeSenders(out, senders);
+        });
+        this.generation = next;
+        this.sequence = 0;
+        this.deltaBytes = 0;
+        this.snapshotForced = false;
+        for (Map.Entry<Long, TreeSet<Integer>> old : this.list().headMap(next - 1).entrySet()) {
+            Files.deleteIfExists(this.snapshotPath(old.getKey()));
+            for (int s : old.getValue()) {
+                Files.deleteIfExists(this.deltaPath(old.getKey(), s));
+            }
+        }
+    }
+
+    /**
+     * Writes the mutations since the last checkpoint as the next delta of the current generation.
+     * Skipped when there is no snapshot to apply it to, or recovery broke the chain; write a snapshot instead.
+     * @param entries The logged PUTs, EXPIREs and CLEARs, in order.
+     * @param senders Sender timestamps set since the last checkpoint.
+     * @return true if the changes are checkpointed, false if they need a snapshot.
+     * @throws IOException If the delta cannot be written.
+     */
+    public boolean writeDelta(List<WriteAheadLog.Entry> entries, Map<String, Long> senders) throws IOException {
+        if (this.generation == 0 || this.snapshotForced) {
+            return false;
+        }
+        if (entries.isEmpty() && senders.isEmpty()) {
+            return true;
+        }
+        int next = this.sequence + 1;
+        this.deltaBytes += this.write(this.deltaPath(this.generation, next), DELTA, this.generation, next, out -> {
+            out.writeInt(entries.size());
+            for (WriteAheadLog.Entry entry : entries) {
+                if (WriteAheadLog.EXPIRE.equals(entry.op)) {
+                    out.writeByte(EXPIRE);
+                    writeString(out, entry.source);
+                } else if (WriteAheadLog.CLEAR.equals(entry.op)) {
+                    out.writeByte(CLEAR);
+                } else {
+                    out.writeByte(PUT);
+                    writeString(out, entry.station);
+                    out.writeLong(entry.time);
+                    writeRecord(out, entry.record);
+                }
+            }
+            writeSenders(out, senders);
+        });
+        this.sequence = next;
+        return true;
+    }
+
+    /**
+     * Deletes every checkpoint, e.g. when the store switches to another snapshot format.
+     * @throws IOException If a file cannot be deleted.
+     */
+    public void deleteAll() throws IOException {
+        for (Map.Entry<Long, TreeSet<Integer>> files : this.list().entrySet()) {
+            Files.deleteIfExists(this.snapshotPath(files.getKey()));
+            for (int s : files.getValue()) {
+                Files.deleteIfExists(this.deltaPath(files.getKey(), s));
+            }
+        }
+        this.generation = 0;
+        this.sequence = 0;
+        this.snapshotBytes = 0;
+        this.deltaBytes = 0;
+    }
+
+    private void readSnapshot(Path path, long generation, Recovery recovery) throws IOException {
+        DataInputStream in = verify(path, SNAPSHOT, generation, 0);
+        Map<String, List<WeatherFormat>> stations = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String station = readString(in);
+            int records = in.readInt();
+            List<WeatherFormat> list = new ArrayList<>(records);
+            for (int r = 0; r < records; r++) {
+                list.add(readRecord(in));
+            }
+            stations.put(station, list);
+        }
+        Map<String, Long> senders = readSenders(in);
+        stations.forEach((station, list) -> list.forEach(record -> recovery.record(station, record)));
+        senders.forEach(recovery::sender);
+    }
+
+    private void readDelta(Path path, long generation, int sequence, Recovery recovery) throws IOException {
+        DataInputStream in = verify(path, DELTA, generation, sequence);
+        int count = in.readInt();
+        List<WriteAheadLog.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            if (op == EXPIRE) {
+                entries.add(WriteAheadLog.Entry.expire(readString(in)));
+            } else if (op == CLEAR) {
+                entries.add(WriteAheadLog.Entry.clear());
+            } else if (op == PUT) {
+                String station = readString(in);
+                long time = in.readLong();
+                entries.add(WriteAheadLog.Entry.put(station, readRecord(in), time));
+            } else {
+                throw new IOException("Unknown entry type " + op);
+            }
+        }
+        Map<String, Long> senders = readSenders(in);
+        entries.forEach(recovery::entry);
+        senders.forEach(recovery::sender);
+    }
+
+    /**
+     * Writes header, body and checksum to a temporary file, forces it, moves it into place and forces the directory.
+     * @return The size of the written file.
+     */
+    private long write(Path path, byte kind, long generation, int sequence, Body body) throws IOException {
+        Files.createDirectories(this.directory);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(kind);
+            out.writeLong(generation);
+            out.writeInt(sequence);
+            body.write(out);
+            out.flush();
+            file.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(this.directory.toAbsolutePath());
+        return Files.size(path);
+    }
+
+    /**
+     * Reads a whole file, checks its checksum and header and returns a stream over the body.
+     */
+    private static DataInputStream verify(Path path, byte kind, long generation, int sequence) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 25) {
+            throw new IOException("Truncated file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        if (in.readByte() != kind || in.readLong() != generation || in.readInt() != sequence) {
+            throw new IOException("Header does not match the file name");
+        }
+        return in;
+    }
+
+    private static void writeRecord(DataOutputStream out, WeatherFormat record) throws IOException {
+        out.writeInt(record.getLamport());
+        out.writeLong(record.getTime());
+        writeString(out, record.getSource());
+        WeatherReading reading = record.getReading();
+        if (reading == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] json = JsonHandling.serialize(reading, true).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(json.length);
+        out.write(json);
+    }
+
+    private static WeatherFormat readRecord(DataInputStream in) throws IOException {
+        int lamport = in.readInt();
+        long time = in.readLong();
+        String source = readString(in);
+        int length = in.readInt();
+        WeatherReading reading = null;
+        if (length >= 0) {
+            byte[] json = new byte[length];
+            in.readFully(json);
+            reading = WeatherReading.read(new StringReader(new String(json, StandardCharsets.UTF_8)));
+        }
+        return WeatherFormat.of(lamport, source, reading, time);
+    }
+
+    private static void writeSenders(DataOutputStream out, Map<String, Long> senders) throws IOException {
+        out.writeInt(senders.size());
+        for (Map.Entry<String, Long> sender : senders.entrySet()) {
+            writeString(out, sender.getKey());
+            out.writeLong(sender.getValue());
+        }
+    }
+
+    private static Map<String, Long> readSenders(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Long> senders = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            senders.put(readString(in), in.readLong());
+        }
+        return senders;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return The checkpoint files in the directory: delta sequences by generation.
+     */
+    private TreeMap<Long, TreeSet<Integer>> list() throws IOException {
+        TreeMap<Long, TreeSet<Integer>> files = new TreeMap<>();
+        if (!Files.isDirectory(this.directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "checkpoint-*")) {
+            for (Path path : stream) {
+                Matcher matcher = FILE.matcher(path.getFileName().toString());
+                if (!matcher.matches()) continue;
+                TreeSet<Integer> deltas = files.computeIfAbsent(Long.parseLong(matcher.group(1)), g -> new TreeSet<>());
+                if (matcher.group(2) != null) {
+                    deltas.add(Integer.parseInt(matcher.group(2)));
+                }
+            }
+        }
+        return files;
+    }
+
+    private Path snapshotPath(long generation) {
+        return this.directory.resolve("checkpoint-" + generation + ".snap");
+    }
+
+    private Path deltaPath(long generation, int sequence) {
+        return this.directory.resolve("checkpoint-" + generation + "-" + sequence + ".delta");
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+
+/**
+ * StationHistory kept in parallel primitive columns instead of one object graph per record.
+ * Lamport, receive time, source and every typed field of WeatherReading get an array of their own. The text
+ * fields shared by many readings, e.g. names and codes, are encoded with one dictionary for every station,
+ * so they cost an int per record; text that is new in every reading, e.g. the local time, is kept as is, and
+ * so are sources, which are new for every sender and dropped with it. Columns start small and grow with the
+ * records up to the capacity.
+ * A record is only rebuilt as a WeatherFormat when it is read, e.g. for the one reading a GET returns.
+ * Enabled with DatabaseManagement.setColumnarHistory.
+ */
+public class ColumnarStationHistory extends StationHistory {
+    private static final int NONE = -1;
+    private static final byte EMPTY = 0;
+    private static final byte NO_READING = 1;
+    private static final byte READING = 2;
+    private static final int INITIAL_LENGTH = 4;
+    private static final WeatherReading.Field[] CODED = Arrays.stream(WeatherReading.Field.TEXTS)
+        .filter(field -> field.repeated).toArray(WeatherReading.Field[]::new);
+    private static final WeatherReading.Field[] RAW = Arrays.stream(WeatherReading.Field.TEXTS)
+        .filter(field -> !field.repeated).toArray(WeatherReading.Field[]::new);
+    // shared by every columnar history; only holds repeated values, so it is never compacted
+    private static final Dictionary WORDS = new Dictionary();
+
+    private byte[] state;
+    private int[] lamports;
+    private long[] times;
+    private String[] sources;
+    private final int[][] codes = new int[CODED.length][];
+    private final String[][] raw = new String[RAW.length][];
+    private final double[][] doubles = new double[WeatherReading.Field.DOUBLES.length][];
+    private final int[][] ints = new int[WeatherReading.Field.INTS.length][];
+    private int[] quoted;
+    private int[] integral;
+    // fields kept as sent, allocated once a reading has any
+    private Object[] extras;
+
+    /**
+     * Words and their codes, only ever appended to, so codes stay valid in every history.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] words = new String[64];
+        private int size;
+
+        int encode(String word) {
+            if (word == null) return NONE;
+            Integer code = this.codes.get(word);
+            if (code != null) return code;
+            synchronized (this) {
+                code = this.codes.get(word);
+                if (code == null) {
+                    String[] words = this.size < this.words.length ? this.words : Arrays.copyOf(this.words, this.size * 2);
+                    words[this.size] = word;
+                    code = this.size++;
+                    // the volatile write publishes the new word before its code can be read from a column
+                    this.words = words;
+                    this.codes.put(word, code);
+                }
+                return code;
+            }
+        }
+
+        String decode(int code) {
+            return code == NONE ? null : this.words[code];
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+    }
+
+    /**
+     * @param capacity Maximum number of records kept.
+     * @param maxAgeMillis Maximum record age used by pruneExpired, 0 to keep records regardless of age.
+     */
+    public ColumnarStationHistory(int capacity, long maxAgeMillis) {
+        super(capacity, maxAgeMillis, false);
+        this.allocate(Math.min(this.capacity, INITIAL_LENGTH));
+    }
+
+    /**
+     * @return The number of words in the dictionary shared by every columnar history.
+     */
+    static int dictionarySize() {
+        return WORDS.size();
+    }
+
+    /**
+     * Sets every column to a length, keeping the slots already stored.
+     */
+    private void allocate(int length) {
+        this.state = this.state == null ? new byte[length] : Arrays.copyOf(this.state, length);
+        this.lamports = this.lamports == null ? new int[length] : Arrays.copyOf(this.lamports, length);
+        this.times = this.times == null ? new long[length] : Arrays.copyOf(this.times, length);
+        this.sources = this.sources == null ? new String[length] : Arrays.copyOf(this.sources, length);
+        for (int c = 0; c < this.codes.length; c++) {
+            this.codes[c] = this.codes[c] == null ? new int[length] : Arrays.copyOf(this.codes[c], length);
+        }
+        for (int r = 0; r < this.raw.length; r++) {
+            this.raw[r] = this.raw[r] == null ? new String[length] : Arrays.copyOf(this.raw[r], length);
+        }
+        for (int d = 0; d < this.doubles.length; d++) {
+            this.doubles[d] = this.doubles[d] == null ? new double[length] : Arrays.copyOf(this.doubles[d], length);
+        }
+        for (int i = 0; i < this.ints.length; i++) {
+            this.ints[i] = this.ints[i] == null ? new int[length] : Arrays.copyOf(this.ints[i], length);
+        }
+        this.quoted = this.quoted == null ? new int[length] : Arrays.copyOf(this.quoted, length);
+        this.integral = this.integral == null ? new int[length] : Arrays.copyOf(this.integral, length);
+        if (this.extras != null) {
+            this.extras = Arrays.copyOf(this.extras, length);
+        }
+    }
+
+    /**
+     * Grows the columns to hold a slot. The ring fills its slots in order before it wraps,
+     * so the columns only reach the capacity once that many records were kept.
+     */
+    private void ensureSlot(int slot) {
+        if (slot >= this.lamports.length) {
+            this.allocate(Math.min(this.capacity, Math.max(slot + 1, this.lamports.length * 2)));
+        }
+    }
+
+    @Override
+    protected WeatherFormat load(int slot) {
+        WeatherReading reading = null;
+        if (this.state[slot] == READING) {
+            reading = new WeatherReading();
+            for (int c = 0; c < this.codes.length; c++) {
+                String text = WORDS.decode(this.codes[c][slot]);
+                if (text != null) reading.setText(CODED[c], text);
+            }
+            for (int r = 0; r < this.raw.length; r++) {
+                String text = this.raw[r][slot];
+                if (text != null) reading.setText(RAW[r], text);
+            }
+            for (int d = 0; d < this.doubles.length; d++) {
+                reading.setDouble(WeatherReading.Field.DOUBLES[d], this.doubles[d][slot]);
+            }
+            for (int i = 0; i < this.ints.length; i++) {
+                reading.setInt(WeatherReading.Field.INTS[i], this.ints[i][slot]);
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, JsonElement> extra = this.extras != null ? (Map<String, JsonElement>) this.extras[slot] : null;
+            reading.restoreFormat(this.quoted[slot], this.integral[slot], extra);
+        }
+        return WeatherFormat.of(this.lamports[slot], this.sources[slot], reading, this.times[slot]);
+    }
+
+    @Override
+    protected void store(int slot, WeatherFormat record) {
+        this.ensureSlot(slot);
+        WeatherReading reading = record.getReading();
+        this.state[slot] = reading != null ? READING : NO_READING;
+        this.lamports[slot] = record.getLamport();
+        this.times[slot] = record.getTime();
+        this.sources[slot] = record.getSource();
+        if (reading != null) {
+            for (int c = 0; c < this.codes.length; c++) {
+                this.codes[c][slot] = WORDS.encode(reading.text(CODED[c]));
+            }
+            for (int r = 0; r < this.raw.length; r++) {
+                this.raw[r][slot] = reading.text(RAW[r]);
+            }
+            for (int d = 0; d < this.doubles.length; d++) {
+                this.doubles[d][slot] = reading.doubleValue(WeatherReading.Field.DOUBLES[d]);
+            }
+            for (int i = 0; i < this.ints.length; i++) {
+                this.ints[i][slot] = reading.intValue(WeatherReading.Field.INTS[i]);
+            }
+            this.quoted[slot] = reading.quotedBits();
+            this.integral[slot] = reading.integralBits();
+            if (reading.extras() != null && this.extras == null) {
+                this.extras = new Object[this.lamports.length];
+            }
+        } else {
+            for (String[] column : this.raw) column[slot] = null;
+        }
+        if (this.extras != null) {
+            this.extras[slot] = reading != null ? reading.extras() : null;
+        }
+    }
+
+    @Override
+    protected void move(int from, int to) {
+        this.ensureSlot(to);
+        this.state[to] = this.state[from];
+        this.lamports[to] = this.lamports[from];
+        this.times[to] = this.times[from];
+        this.sources[to] = this.sources[from];
+        for (int[] column : this.codes) column[to] = column[from];
+        for (String[] column : this.raw) column[to] = column[from];
+        for (double[] column : this.doubles) column[to] = column[from];
+        for (int[] column : this.ints) column[to] = column[from];
+        this.quoted[to] = this.quoted[from];
+        this.integral[to] = this.integral[from];
+        if (this.extras != null) this.extras[to] = this.extras[from];
+    }
+
+    @Override
+    protected void clear(int slot) {
+        this.state[slot] = EMPTY;
+        this.sources[slot] = null;
+        for (String[] column : this.raw) column[slot] = null;
+        if (this.extras != null) this.extras[slot] = null;
+    }
+
+    @Override
+    protected int lamportAt(int slot) {
+        return this.lamports[slot];
+    }
+
+    @Override
+    protected long timeAt(int slot) {
+        return this.times[slot];
+    }
+
+    @Override
+    protected String sourceAt(int slot) {
+        return this.sources[slot];
+    }
+}
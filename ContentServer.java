@@ -1,5 +1,7 @@
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 public class ContentServer {
@@ -8,6 +10,9 @@ public class ContentServer {
     private String source;
     private JsonObject data;
     private boolean isClosed;
+    private boolean compact = true;
+    private boolean keepAlive = true;
+    private final List<JsonObject> buffered = new ArrayList<>();
 
     public ContentServer(SocketServer socket) {
         this.source = UUID.randomUUID().toString();
@@ -15,6 +20,22 @@ public class ContentServer {
         this.clock = new Lamport();
     }
 
+    /**
+     * Chooses between compact (default) and pretty-printed JSON for uploaded bodies.
+     * @param compact True to send compact JSON.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Chooses whether uploads ask the server to keep the connection open for the next upload (default).
+     * @param keepAlive True to reuse one connection across uploads.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
     /**
      * Attempts to load weather data from a specified file.
      * Converts the file content to JSON format.
@@ -45,28 +66,12 @@ public class ContentServer {
             System.out.println("lamport data: ");
             this.clock.adjust(lamportClockServer);
             System.out.println("Updated Lamport clock 1: " + this.clock.getTime());
-            String dataString = JsonHandling.prettier(this.data);
-            
-            String putRequest = "PUT /data.json HTTP/1.1\r\n" +
-                            "Content-Length: " + dataString.length() + "\r\n" +
-                            "LamportClock: " + this.clock.getTime() + "\r\n" +
-                            "Source: " + this.source + "\r\n" +
-                            "\r\n" +
-                            dataString;
+            String putRequest = this.putRequest(this.data, this.keepAlive);
             String res = this.socketServer.requestAndGetData(serverName, portNumber, putRequest, true);
             System.out.println("Response data: ");
             System.out.println(res);
             if (res != null) {
-                String[] lines = res.split("\r\n");
-                for (String line : lines) {
-                    if (line.startsWith("Lamport: ")) {
-                        int serverClock = Integer.parseInt(line.split(": ")[1]);
-                        this.clock.adjust(serverClock);
-                        System.out.println("serverClock: " + serverClock);
-                        System.out.println("Updated Lamport clock 2: " + this.clock.getTime());
-                        break;
-                    }
-                }
+                this.adjustClock(res);
                 
                 String statusCode = res.split(" ")[1];
                 switch (statusCode) {
@@ -91,6 +96,168 @@ public class ContentServer {
         } 
     }
 
+    /**
+     * Queues a reading to be sent by the next uploadBuffered call.
+     * @param reading The weather reading; readings for different stations may be mixed.
+     */
+    public void bufferReading(JsonObject reading) {
+        this.buffered.add(reading);
+    }
+
+    /**
+     * Loads a file and queues its reading to be sent by the next uploadBuffered call.
+     * @param filePath The path to the file containing weather data.
+     * @return true if the file was loaded, false otherwise.
+     */
+    public boolean bufferFile(String filePath) {
+        try {
+            this.bufferReading(JsonHandling.convertTextToJson(JsonHandling.read(filePath)));
+            return true;
+        } catch (Exception e) {
+            System.out.println("Error on loading file " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return The number of readings waiting to be uploaded.
+     */
+    public int getBufferedCount() {
+        return this.buffered.size();
+    }
+
+    /**
+     * Uploads every buffered reading in one pipelined burst on a single connection, e.g. to backfill
+     * after an outage, instead of waiting for a response before sending the next reading.
+     * Each reading gets its own tick of the Lamport clock so the server applies them in order.
+     * Readings that were not acknowledged stay buffered for the next call.
+     * @param serverName The hostname of the aggregation server.
+     * @param portNumber The port number of the aggregation server.
+     * @return The number of readings the server accepted.
+     */
+    public int uploadBuffered(String serverName, int portNumber) {
+        if (this.buffered.isEmpty()) {
+            return 0;
+        }
+        try {
+            this.clock.adjust(this.socketServer.initializeSocketandGetLamport(serverName, portNumber));
+        } catch (RuntimeException e) {
+            System.out.println("Cannot reach server: " + e.getMessage());
+            return 0;
+        }
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < this.buffered.size(); i++) {
+            if (i > 0) {
+                this.clock.tick();
+            }
+            // keep the connection open between pipelined requests; the last one follows the keepAlive setting
+            boolean last = i == this.buffered.size() - 1;
+            requests.add(this.putRequest(this.buffered.get(i), !last || this.keepAlive));
+        }
+        List<String> responses = this.socketServer.pipeline(serverName, portNumber, requests);
+        List<JsonObject> remaining = new ArrayList<>();
+        int uploaded = 0;
+        for (int i = 0; i < this.buffered.size(); i++) {
+            String res = i < responses.size() ? responses.get(i) : null;
+            if (res != null) {
+                this.adjustClock(res);
+                String statusCode = res.split(" ")[1];
+                if (statusCode.equals("200") || statusCode.equals("201")) {
+                    uploaded++;
+                    continue;
+                }
+            }
+            remaining.add(this.buffered.get(i));
+        }
+        this.buffered.clear();
+        this.buffered.addAll(remaining);
+        System.out.println("Uploaded " + uploaded + " buffered readings, " + remaining.size() + " left");
+        return uploaded;
+    }
+
+    /**
+     * Uploads every buffered reading in a single batch PUT, sent as NDJSON, so the server applies them
+     * with one Lamport tick range and one log flush. Readings the server rejected stay buffered.
+     * @param serverName The hostname of the aggregation server.
+     * @param portNumber The port number of the aggregation server.
+     * @return The number of readings the server accepted.
+     */
+    public int uploadBatch(String serverName, int portNumber) {
+        if (this.buffered.isEmpty()) {
+            return 0;
+        }
+        StringBuilder body = new StringBuilder();
+        for (JsonObject reading : this.buffered) {
+            body.append(JsonHandling.compact(reading)).append('\n');
+        }
+        String res;
+        try {
+            this.clock.adjust(this.socketServer.initializeSocketandGetLamport(serverName, portNumber));
+            String putRequest = "PUT /data.json HTTP/1.1\r\n" +
+                    "Content-Type: " + JsonHandling.NDJSON_TYPE + "\r\n" +
+                    "Accept: " + JsonHandling.COMPACT_TYPE + "\r\n" +
+                    "Content-Length: " + body.toString().getBytes(StandardCharsets.UTF_8).length + "\r\n" +
+                    "LamportClock: " + this.clock.getTime() + "\r\n" +
+                    "Source: " + this.source + "\r\n" +
+                    (this.keepAlive ? "Connection: keep-alive\r\n" : "") +
+                    "\r\n" +
+                    body;
+            res = this.socketServer.requestAndGetData(serverName, portNumber, putRequest, true);
+        } catch (RuntimeException e) {
+            System.out.println("Cannot reach server: " + e.getMessage());
+            return 0;
+        }
+        if (res == null || !res.split(" ")[1].equals("200")) {
+            System.out.println("Batch upload failed: " + res);
+            return 0;
+        }
+        this.adjustClock(res);
+
+        Set<Integer> accepted = new HashSet<>();
+        JsonObject statuses = JsonHandling.parseJSONObject(res.substring(res.indexOf("\r\n\r\n") + 4));
+        for (JsonElement item : statuses.getAsJsonArray("items")) {
+            String status = item.getAsJsonObject().get("status").getAsString();
+            if (status.startsWith("200") || status.startsWith("201")) {
+                accepted.add(item.getAsJsonObject().get("index").getAsInt());
+            }
+        }
+        List<JsonObject> remaining = new ArrayList<>();
+        for (int i = 0; i < this.buffered.size(); i++) {
+            if (!accepted.contains(i)) {
+                remaining.add(this.buffered.get(i));
+            }
+        }
+        this.buffered.clear();
+        this.buffered.addAll(remaining);
+        System.out.println("Uploaded batch of " + accepted.size() + " readings, " + remaining.size() + " left");
+        return accepted.size();
+    }
+
+    private String putRequest(JsonObject reading, boolean keepAlive) {
+        String dataString = JsonHandling.serialize(reading, this.compact);
+        return "PUT /data.json HTTP/1.1\r\n" +
+                "Content-Type: " + (this.compact ? JsonHandling.COMPACT_TYPE : "application/json") + "\r\n" +
+                "Content-Length: " + dataString.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
+                "LamportClock: " + this.clock.getTime() + "\r\n" +
+                "Source: " + this.source + "\r\n" +
+                (keepAlive ? "Connection: keep-alive\r\n" : "") +
+                (reading.has("id") ? "StationID: " + reading.get("id").getAsString() + "\r\n" : "") +
+                "\r\n" +
+                dataString;
+    }
+
+    private void adjustClock(String res) {
+        for (String line : res.split("\r\n")) {
+            if (line.startsWith("Lamport: ")) {
+                int serverClock = Integer.parseInt(line.split(": ")[1]);
+                this.clock.adjust(serverClock);
+                System.out.println("serverClock: " + serverClock);
+                System.out.println("Updated Lamport clock 2: " + this.clock.getTime());
+                break;
+            }
+        }
+    }
+
     /**
      * Implements retry logic for uploading data to the server.
      * Waits for a specified time before attempting to upload again.
@@ -147,11 +314,22 @@ public class ContentServer {
         SocketServer socketHandler = new SocketServer();
         ContentServer server = new ContentServer(socketHandler);
 
-        if (!server.isLoadFileSuccess(file)) {
-            System.out.println("Error: Failed to load data from " + file);
-            return;
+        if (args.length > 3) {
+            // several files: send them as one pipelined burst
+            for (int i = 2; i < args.length; i++) {
+                if (!server.bufferFile(args[i])) {
+                    System.out.println("Error: Failed to load data from " + args[i]);
+                    return;
+                }
+            }
+            server.uploadBuffered(serverName, port);
+        } else {
+            if (!server.isLoadFileSuccess(file)) {
+                System.out.println("Error: Failed to load data from " + file);
+                return;
+            }
+            server.uploadData(serverName, port);
         }
-        server.uploadData(serverName, port);
 
         Thread monitorThread = new Thread(() -> {
             Scanner scanner = new Scanner(System.in);
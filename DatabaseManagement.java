@@ -1,47 +1,116 @@
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
 import java.lang.reflect.Type;
 
 public class DatabaseManagement {
     private static final long EXPIRE_SAVE = 30000;
+    private static final long COMPACT_INTERVAL = 30000;
+    private static final int COMPACT_THRESHOLD = 1000;
+    private static final int DEFAULT_HISTORY_CAPACITY = 100;
+    private static final int PERSIST_QUEUE_CAPACITY = 1024;
 
-    private static final String MAIN_DATA = "data" + File.separator + "data.json";
-    private static final String MAIN_DATA_BACKUP = "data" + File.separator + "data_backup.json";
-    private static final String SENDER_FILE_PATH = "data" + File.separator + "sender.json";
-    private static final String SENDER_FILE_PATH_BACKUP = "data" + File.separator + "sender_backup.json";
+    public static final String DEFAULT_DIRECTORY = "data";
+
+    private final String mainData;
+    private final String mainDataBackup;
+    private final String mappedData;
+    private final String senderFilePath;
+    private final String senderFilePathBackup;
     private String latestStationID;
-    private Map<String, LinkedList<WeatherFormat>> weatherData = new ConcurrentHashMap<>();
+    private Map<String, StationHistory> weatherData = new ConcurrentHashMap<>();
     private Map<String, Long> senderTimestamp = new ConcurrentHashMap<>();
     private static DatabaseManagement db;
     private ScheduledExecutorService updateDataSchedule = Executors.newScheduledThreadPool(1);
+    private final WriteAheadLog wal;
+    private final PersistenceWriter writer;
+    // sequence number of the last mutation applied to memory, handed to the writer with its log entries
+    private long mutations;
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    // set by clear, which a checkpoint delta cannot express
+    private boolean fullCheckpointDue;
+    // Held while changing the in-memory data and logging it, so a compaction never splits the two.
+    private final Object walLock = new Object();
+    private final AtomicInteger highestLamport = new AtomicInteger();
+    // Set when expiry removed the record holding the maximum; the next read recomputes it.
+    private volatile boolean highestLamportStale = true;
+    private final Map<String, Set<String>> sourceStations = new ConcurrentHashMap<>();
+    private final DelayQueue<SenderExpiry> expiryQueue = new DelayQueue<>();
+    private final Set<String> expiryScheduled = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+    private int historyCapacity = DEFAULT_HISTORY_CAPACITY;
+    private long historyMaxAge = 0;
+    private volatile boolean columnarHistory;
+    private volatile SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+    private final CheckpointStore checkpoints;
+    // mutations since the last checkpoint, kept while the store is checkpointed; guarded by walLock
+    private List<WriteAheadLog.Entry> changes = new ArrayList<>();
+    private final Map<String, Long> changedSenders = new ConcurrentHashMap<>();
 
     /**
-     * Singleton instance getter for DatabaseManagement.
-     * Ensures only one instance of the database is created and used throughout the application.
-     * @return The singleton instance of DatabaseManagement.
+     * How the store is snapshotted when the write-ahead log is compacted.
      */
-    private DatabaseManagement() {
-        if (db != null) {
-            throw new RuntimeException("use get db method");
-        }
+    private enum SnapshotFormat {
+        /** data.json and sender.json. */
+        JSON,
+        /** data.dat, memory-mapped on startup (MappedRecordStore), and sender.json. */
+        MAPPED,
+        /** Binary snapshots with delta checkpoints (CheckpointStore). */
+        CHECKPOINTS
+    }
+
+    /**
+     * Creates a store persisting to its own directory, loading whatever it already holds.
+     * Several stores can run side by side as long as each has a different directory;
+     * the default store in "data" is obtained with initialize().
+     * @param dataDirectory The directory holding the snapshot, sender and log files.
+     */
+    public DatabaseManagement(String dataDirectory) {
+        this.mainData = dataDirectory + File.separator + "data.json";
+        this.mainDataBackup = dataDirectory + File.separator + "data_backup.json";
+        this.mappedData = dataDirectory + File.separator + "data.dat";
+        this.senderFilePath = dataDirectory + File.separator + "sender.json";
+        this.senderFilePathBackup = dataDirectory + File.separator + "sender_backup.json";
+        this.wal = new WriteAheadLog(Paths.get(dataDirectory, "data.wal"));
+        this.checkpoints = new CheckpointStore(Paths.get(dataDirectory));
+        this.writer = new PersistenceWriter(this.wal, PERSIST_QUEUE_CAPACITY);
         this.loadData();
         updateDataSchedule.scheduleAtFixedRate(this::updateData, 0, 5, TimeUnit.SECONDS);
+        updateDataSchedule.scheduleAtFixedRate(() -> {
+            if (this.wal.size() > 0) this.requestCompaction();
+        }, COMPACT_INTERVAL, COMPACT_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public static DatabaseManagement initialize() {
+    /**
+     * Singleton instance getter for the default store in the "data" directory.
+     * @return The default instance of DatabaseManagement.
+     */
+    public static synchronized DatabaseManagement initialize() {
         if (db == null) {
-            db = new DatabaseManagement();
+            db = new DatabaseManagement(DEFAULT_DIRECTORY);
         }
        return db;
     }
@@ -49,41 +118,273 @@ public class DatabaseManagement {
 
     /**
      * Loads data from persistent storage into memory.
-     * Retrieves weather data and sender timestamps from JSON files, handling potential file errors.
+     * Retrieves weather data and sender timestamps from the snapshot, handling potential file errors,
+     * then replays the write-ahead log on top and folds it into a fresh snapshot.
+     * Checkpoints are preferred, then a binary snapshot (data.dat), which is mapped instead of parsed;
+     * either keeps the store in its format. Otherwise the JSON snapshot is read.
      */
     public void loadData() {
-        Map<String, LinkedList<WeatherFormat>> loadedWeatherData = loadDataFromFile(MAIN_DATA, MAIN_DATA_BACKUP, 
-            new TypeToken<ConcurrentHashMap<String, LinkedList<WeatherFormat>>>(){}.getType());
+        boolean checkpointed = this.loadCheckpoints();
+        Map<String, LinkedList<WeatherFormat>> loadedWeatherData = checkpointed || this.loadMappedData() ? null
+            : loadDataFromFile(this.mainData, this.mainDataBackup,
+                new TypeToken<ConcurrentHashMap<String, LinkedList<WeatherFormat>>>(){}.getType());
 
-        Map<String, Long> loadedSenderTimestamp = loadDataFromFile(SENDER_FILE_PATH, SENDER_FILE_PATH_BACKUP, 
-            new TypeToken<ConcurrentHashMap<String, Long>>(){}.getType());
+        Map<String, Long> loadedSenderTimestamp = checkpointed ? null
+            : loadDataFromFile(this.senderFilePath, this.senderFilePathBackup,
+                new TypeToken<ConcurrentHashMap<String, Long>>(){}.getType());
 
         if (loadedWeatherData != null) {
-            this.weatherData = loadedWeatherData;
+            loadedWeatherData.forEach((station, records) -> records.forEach(d -> {
+                this.history(station).add(d);
+                this.index(station, d.getSource());
+            }));
         }
 
         if (loadedSenderTimestamp != null) {
             this.senderTimestamp = loadedSenderTimestamp;
         }
+
+        try {
+            List<WriteAheadLog.Entry> entries = this.wal.readAll();
+            for (WriteAheadLog.Entry entry : entries) {
+                this.applyLogEntry(entry);
+            }
+            if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+                this.changes.addAll(entries);
+            }
+            if (!entries.isEmpty()) {
+                System.out.println("Replayed " + entries.size() + " log entries");
+                this.compact();
+            }
+        } catch (IOException e) {
+            System.out.println("Error replaying log: " + e.getMessage());
+        }
+        this.senderTimestamp.forEach(this::scheduleExpiry);
+    }
+
+    /**
+     * Maps the binary snapshot, if there is one, and indexes its records into MappedStationHistory objects.
+     * @return true if the snapshot was loaded.
+     */
+    private boolean loadMappedData() {
+        Path path = Paths.get(this.mappedData);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try {
+            MappedRecordStore.open(path, (store, station, lamport, time, source, offset) -> {
+                StationHistory history = this.weatherData.computeIfAbsent(station,
+                    k -> new MappedStationHistory(this.historyCapacity, this.historyMaxAge));
+                if (history instanceof MappedStationHistory) {
+                    ((MappedStationHistory) history).addMapped(store, lamport, time, source, offset);
+                } else {
+                    history.add(WeatherFormat.of(lamport, source, store.readReading(offset), time));
+                }
+                this.index(station, source);
+            });
+            this.snapshotFormat = SnapshotFormat.MAPPED;
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error mapping " + this.mappedData + ": " + e.getMessage());
+            this.weatherData.clear();
+            this.sourceStations.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Recovers the newest valid checkpoint and the deltas after it, if the directory holds any.
+     * @return true if a checkpoint was loaded.
+     */
+    private boolean loadCheckpoints() {
+        try {
+            if (!this.checkpoints.exists()) {
+                return false;
+            }
+            boolean loaded = this.checkpoints.recover(new CheckpointStore.Recovery() {
+                @Override
+                public void record(String station, WeatherFormat record) {
+                    history(station).add(record);
+                    index(station, record.getSource());
+                }
+
+                @Override
+                public void sender(String source, long time) {
+                    senderTimestamp.put(source, time);
+                }
+
+                @Override
+                public void entry(WriteAheadLog.Entry entry) {
+                    applyLogEntry(entry);
+                }
+            });
+            if (loaded) {
+                this.snapshotFormat = SnapshotFormat.CHECKPOINTS;
+            }
+            return loaded;
+        } catch (IOException e) {
+            System.out.println("Error reading checkpoints: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Re-applies a logged mutation to the in-memory data during startup.
+     * @param entry The logged PUT, EXPIRE or CLEAR.
+     */
+    private void applyLogEntry(WriteAheadLog.Entry entry) {
+        if (WriteAheadLog.PUT.equals(entry.op)) {
+            this.history(entry.station).add(entry.record);
+            this.index(entry.station, entry.source);
+            this.senderTimestamp.merge(entry.source, entry.time, Math::max);
+            this.latestStationID = entry.station;
+        } else if (WriteAheadLog.EXPIRE.equals(entry.op)) {
+            this.senderTimestamp.remove(entry.source);
+            Set<String> stations = this.sourceStations.remove(entry.source);
+            if (stations != null) {
+                this.removeFromStations(stations, d -> d.removeSource(entry.source));
+            }
+        } else if (WriteAheadLog.CLEAR.equals(entry.op)) {
+            this.reset();
+        }
     }
 
     /**
      * Retrieves the highest Lamport clock value from stored weather data.
      * Used to maintain clock consistency across the distributed system.
+     * The maximum is tracked on every save, so this is constant time unless expiry removed the record
+     * holding it, in which case it is recomputed once from the per-station maxima.
      * @return The highest Lamport clock value found in the stored data.
      */
     public int getHighestLamportClock() {
-        int highestLamport = 0;
-        for (LinkedList<WeatherFormat> dataList : weatherData.values()) {
-            for (WeatherFormat data : dataList) {
-                highestLamport = Math.max(highestLamport, data.getLamport());
+        if (this.highestLamportStale) {
+            synchronized (this.walLock) {
+                if (this.highestLamportStale) {
+                    int highest = 0;
+                    for (StationHistory history : weatherData.values()) {
+                        highest = Math.max(highest, history.highestLamport());
+                    }
+                    this.highestLamport.set(highest);
+                    this.highestLamportStale = false;
+                }
+            }
+        }
+        return this.highestLamport.get();
+    }
+
+    /**
+     * Bounds the history kept per station. Stations already loaded from disk are rebuilt with the new limits.
+     * @param capacity Maximum records kept per station; the lowest Lamport is evicted first.
+     * @param maxAgeMillis Maximum record age, 0 to only bound by count.
+     */
+    public void setHistoryLimits(int capacity, long maxAgeMillis) {
+        synchronized (this.walLock) {
+            if (this.historyCapacity == capacity && this.historyMaxAge == maxAgeMillis) return;
+            this.historyCapacity = capacity;
+            this.historyMaxAge = maxAgeMillis;
+            this.weatherData.replaceAll((station, history) -> this.rebuild(history));
+            this.highestLamportStale = true;
+        }
+        this.fireChange(null);
+    }
+
+    /**
+     * Keeps station histories in primitive columns (ColumnarStationHistory) instead of one object per record,
+     * which takes far less heap for long histories. Stations already loaded are converted.
+     * @param columnar true for columnar histories, false for record objects.
+     */
+    public void setColumnarHistory(boolean columnar) {
+        synchronized (this.walLock) {
+            if (this.columnarHistory == columnar) return;
+            this.columnarHistory = columnar;
+            this.weatherData.replaceAll((station, history) -> this.rebuild(history));
+        }
+    }
+
+    /**
+     * Keeps the snapshot as a binary file (data.dat) that is memory-mapped on startup, instead of data.json.
+     * Startup then only scans record headers, and readings in the snapshot stay off the heap until read.
+     * Stations already loaded are converted and a snapshot in the new format is written right away.
+     * A store loaded from data.dat is already in the mapped format.
+     * @param mapped true for the mapped snapshot, false for JSON.
+     */
+    public void setMappedStore(boolean mapped) {
+        if (mapped || this.snapshotFormat == SnapshotFormat.MAPPED) {
+            this.setSnapshotFormat(mapped ? SnapshotFormat.MAPPED : SnapshotFormat.JSON);
+        }
+    }
+
+    /**
+     * Snapshots the store as versioned binary checkpoints with checksums (CheckpointStore) instead of JSON.
+     * Compaction then writes a delta of the mutations since the previous checkpoint, and a full snapshot only
+     * once the deltas outgrow the last one. A store loaded from checkpoints keeps using them.
+     * @param enabled true for checkpoints, false for JSON.
+     */
+    public void setCheckpoints(boolean enabled) {
+        if (enabled || this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+            this.setSnapshotFormat(enabled ? SnapshotFormat.CHECKPOINTS : SnapshotFormat.JSON);
+        }
+    }
+
+    private void setSnapshotFormat(SnapshotFormat format) {
+        synchronized (this.walLock) {
+            if (this.snapshotFormat == format) return;
+            boolean remap = (format == SnapshotFormat.MAPPED) != (this.snapshotFormat == SnapshotFormat.MAPPED);
+            this.snapshotFormat = format;
+            this.changes = new ArrayList<>();
+            this.changedSenders.clear();
+            if (remap) {
+                this.weatherData.replaceAll((station, history) -> this.rebuild(history));
             }
         }
-        return highestLamport;
+        this.compact();
+    }
+
+    private StationHistory newHistory() {
+        if (this.snapshotFormat == SnapshotFormat.MAPPED) {
+            return new MappedStationHistory(this.historyCapacity, this.historyMaxAge);
+        }
+        return this.columnarHistory
+            ? new ColumnarStationHistory(this.historyCapacity, this.historyMaxAge)
+            : new StationHistory(this.historyCapacity, this.historyMaxAge);
+    }
+
+    /**
+     * Copies a history into a new one with the current storage and limits.
+     * Mapped records are carried over by offset, without decoding their readings.
+     */
+    private StationHistory rebuild(StationHistory history) {
+        StationHistory rebuilt = this.newHistory();
+        if (history instanceof MappedStationHistory && rebuilt instanceof MappedStationHistory) {
+            ((MappedStationHistory) history).copyTo((MappedStationHistory) rebuilt);
+        } else {
+            history.toList().forEach(rebuilt::add);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Registers a callback run with the station ID whenever a station's history changes,
+     * or with null when everything was cleared. Used to invalidate cached responses.
+     * @param listener The callback.
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        this.changeListeners.add(listener);
+    }
+
+    private void fireChange(String station) {
+        for (Consumer<String> listener : this.changeListeners) {
+            listener.accept(station);
+        }
+    }
+
+    private StationHistory history(String station) {
+        return this.weatherData.computeIfAbsent(station, k -> this.newHistory());
     }
 
     /**
      * Generic method to load data from a file with error handling and backup support.
+     * The backup, the previous snapshot, is read if the file cannot be read or does not parse.
      * @param filePath The primary file path to load from.
      * @param backupFilePath The backup file path to use if the primary fails.
      * @param type The type of data to deserialize into.
@@ -100,13 +401,13 @@ public class DatabaseManagement {
 
             String jsonData = new String(Files.readAllBytes(Paths.get(filePath)));
             return JsonHandling.convertObject(jsonData, type);
-        } catch (IOException e) {
+        } catch (IOException | JsonParseException e) {
             System.out.println("Error reading from main file: " + e.getMessage());
             System.out.println("Attempting to read from backup file...");
             try {
                 String backupData = new String(Files.readAllBytes(Paths.get(backupFilePath)));
                 return JsonHandling.convertObject(backupData, type);
-            } catch (IOException ex) {
+            } catch (IOException | JsonParseException ex) {
                 System.out.println("Error reading from backup file: " + ex.getMessage());
                 return null;
             }
@@ -115,33 +416,290 @@ public class DatabaseManagement {
 
     /**
      * Saves new weather data to the database.
-     * Updates both in-memory data structures and persists to file.
+     * Updates the in-memory data and queues only the new record for the write-ahead log,
+     * so the cost of a PUT does not grow with the size of the store.
+     * Safe to call from several request workers.
      * @param key The station ID or unique identifier for the weather data.
      * @param data The WeatherFormat object containing the new data.
+     * @return A future completed once the record is durable according to the log's durability mode.
+     */
+    public CompletableFuture<Void> saveData(String key, WeatherFormat data) {
+        return this.saveAll(List.of(Map.entry(key, data)));
+    }
+
+    /**
+     * Saves several records, e.g. the readings of one batch PUT, with a single write-ahead log flush.
+     * @param records Station IDs with their new records, applied in order.
+     * @return A future completed once every record is durable according to the log's durability mode.
+     */
+    public CompletableFuture<Void> saveAll(List<Map.Entry<String, WeatherFormat>> records) {
+        try {
+            List<WriteAheadLog.Entry> entries = new ArrayList<>(records.size());
+            long sequence;
+            synchronized (this.walLock) {
+                for (Map.Entry<String, WeatherFormat> record : records) {
+                    String key = record.getKey();
+                    WeatherFormat data = record.getValue();
+                    this.weatherData.compute(key, (k, history) -> {
+                        StationHistory stationData = history != null ? history : this.newHistory();
+                        stationData.add(data);
+                        return stationData;
+                    });
+                    this.highestLamport.accumulateAndGet(data.getLamport(), Math::max);
+                    this.index(key, data.getSource());
+                    this.latestStationID = key;
+                    Long time = data.getSource() != null ? this.senderTimestamp.get(data.getSource()) : null;
+                    entries.add(WriteAheadLog.Entry.put(key, data, time != null ? time : System.currentTimeMillis()));
+                }
+                sequence = ++this.mutations;
+                if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+                    this.changes.addAll(entries);
+                }
+            }
+            // queued outside the lock: a full queue blocks this request, never the writer's compaction
+            CompletableFuture<Void> written = this.writer.append(sequence, entries);
+            for (Map.Entry<String, WeatherFormat> record : records) {
+                this.fireChange(record.getKey());
+            }
+            if (this.wal.size() >= COMPACT_THRESHOLD) {
+                this.requestCompaction();
+            }
+            return this.wal.getDurability() == WriteAheadLog.Durability.ASYNC
+                ? CompletableFuture.completedFuture(null) : written;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Chooses when a saved record counts as durable: flushed by each request (coalescing concurrent ones),
+     * by a background flush every batchMillis, or asynchronously without waiting.
+     * @param durability The durability mode.
+     * @param batchMillis The flush interval for BATCHED and ASYNC.
+     */
+    public void setDurability(WriteAheadLog.Durability durability, long batchMillis) {
+        this.wal.setDurability(durability, batchMillis);
+    }
+
+    /**
+     * Waits until every mutation saved so far is in the write-ahead log and forced to disk,
+     * whatever the durability mode. Meant for tests and tools that read the files.
+     */
+    public void flush() {
+        this.writer.flush();
+    }
+
+    /**
+     * Folds the write-ahead log into the snapshot and truncates it, waiting until done.
+     * Runs on the persistence writer after every mutation queued before it, periodically, after startup replay
+     * and once the log grows past COMPACT_THRESHOLD entries.
+     */
+    public void compact() {
+        try {
+            this.writer.submit(this::compactNow).join();
+        } catch (CompletionException e) {
+            System.out.println("Compaction failed: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Queues a compaction on the persistence writer without waiting for it, unless one is queued already.
+     */
+    private void requestCompaction() {
+        if (this.compactionQueued.compareAndSet(false, true)) {
+            this.writer.submit(this::compactNow);
+        }
+    }
+
+    /**
+     * The compaction itself, run on the persistence writer. Snapshots are captured under walLock and
+     * written without it, so saves only wait for the copy; only a checkpoint delta is written under the
+     * lock, as its changes must not move while being written.
+     * Mutations captured by the snapshot but still queued are then skipped by the writer.
      */
-    public void saveData(String key, WeatherFormat data) {
+    private void compactNow() {
+        this.compactionQueued.set(false);
         try {
-            this.weatherData.computeIfAbsent(key, e -> new LinkedList<>()).add(data);
-            this.latestStationID = key;
-            this.saveWeatherData();
-            this.saveSenderData();
+            if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+                this.checkpoint();
+                return;
+            }
+            long covered;
+            Map<String, List<WeatherFormat>> snapshot;
+            Map<String, MappedStationHistory.Snapshot> mapped = null;
+            Map<String, Long> senders;
+            synchronized (this.walLock) {
+                covered = this.mutations;
+                if (this.snapshotFormat == SnapshotFormat.MAPPED) {
+                    mapped = new HashMap<>();
+                    snapshot = this.captureMapped(mapped);
+                } else {
+                    snapshot = this.copyWeatherData();
+                }
+                senders = new HashMap<>(this.senderTimestamp);
+            }
+            if (mapped != null) {
+                this.saveMappedData(mapped, snapshot);
+            } else {
+                this.writeWeatherJson(snapshot);
+            }
+            this.writeSenderJson(senders);
+            this.truncateLog(covered);
+            this.checkpoints.deleteAll();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Truncates the write-ahead log once a snapshot holds its entries, and tells the writer to skip
+     * queued mutations the snapshot already holds.
+     * @param covered The last mutation in the snapshot.
+     */
+    private void truncateLog(long covered) throws IOException {
+        this.wal.truncate();
+        this.writer.coveredUpTo(covered);
+    }
+
+    private Map<String, List<WeatherFormat>> copyWeatherData() {
+        Map<String, List<WeatherFormat>> snapshot = new HashMap<>();
+        for (Map.Entry<String, StationHistory> entry : this.weatherData.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().toList());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the mutations since the last checkpoint as a delta, followed by a full snapshot when one is due,
+     * e.g. after the store was cleared. The delta is written before every snapshot, so the previous snapshot
+     * and its deltas still lead to the new one if that turns out corrupt. The delta is written under walLock;
+     * the snapshot is only captured under it. The log is truncated as soon as a checkpoint holds its entries,
+     * so a failed snapshot never leaves them in both; until then the changes and the log are kept.
+     * @throws IOException If a checkpoint cannot be written.
+     */
+    private void checkpoint() throws IOException {
+        long covered;
+        List<WriteAheadLog.Entry> pending;
+        int captured;
+        Map<String, Long> capturedSenders;
+        Map<String, List<WeatherFormat>> snapshot;
+        Map<String, Long> senders;
+        synchronized (this.walLock) {
+            Map<String, Long> changed = new HashMap<>(this.changedSenders);
+            if (this.checkpoints.writeDelta(this.changes, changed)) {
+                this.changes = new ArrayList<>();
+                // saveTime does not take walLock; a timestamp it changed since the copy stays for the next delta
+                changed.forEach((source, time) -> this.changedSenders.remove(source, time));
+                this.truncateLog(this.mutations);
+            }
+            if (!this.fullCheckpointDue && !this.checkpoints.snapshotDue()) {
+                return;
+            }
+            this.fullCheckpointDue = false;
+            covered = this.mutations;
+            // changes a delta could not take yet, e.g. before the first snapshot; they stay until it is written
+            pending = this.changes;
+            captured = pending.size();
+            capturedSenders = new HashMap<>(this.changedSenders);
+            snapshot = this.copyWeatherData();
+            senders = new HashMap<>(this.senderTimestamp);
+        }
+        try {
+            this.checkpoints.writeSnapshot(snapshot, senders);
+        } catch (IOException e) {
+            synchronized (this.walLock) {
+                this.fullCheckpointDue = true;
+            }
+            throw e;
+        }
+        synchronized (this.walLock) {
+            if (this.changes == pending) {
+                pending.subList(0, captured).clear();
+            }
+            capturedSenders.forEach((source, time) -> this.changedSenders.remove(source, time));
+        }
+        this.truncateLog(covered);
+        for (String file : new String[] { this.mainData, this.mainDataBackup, this.senderFilePath,
+                this.senderFilePathBackup, this.mappedData }) {
+            Files.deleteIfExists(Paths.get(file));
+        }
+    }
+
     /**
      * Persists the current weather data to file.
      * Ensures data durability across server restarts.
+     * The file is written by the persistence writer, never alongside a compaction.
      */
     public void saveWeatherData() {
-        try {
-            String jsonWeatherData = JsonHandling.convertJSON(this.weatherData);
-            Files.write(Paths.get(MAIN_DATA_BACKUP), jsonWeatherData.getBytes());
-            Files.move(Paths.get(MAIN_DATA_BACKUP), Paths.get(MAIN_DATA), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } catch (Exception e) {
-            // e.printStackTrace();
+        this.writer.submit(() -> {
+            if (this.snapshotFormat == SnapshotFormat.MAPPED) {
+                Map<String, MappedStationHistory.Snapshot> mapped = new HashMap<>();
+                Map<String, List<WeatherFormat>> others;
+                synchronized (this.walLock) {
+                    others = this.captureMapped(mapped);
+                }
+                this.saveMappedData(mapped, others);
+            } else {
+                this.writeWeatherJson(this.copyWeatherData());
+            }
+        }).exceptionally(e -> {
+            System.out.println("Error saving weather data: " + e.getMessage());
+            return null;
+        }).join();
+    }
+
+    private void writeWeatherJson(Map<String, List<WeatherFormat>> snapshot) throws IOException {
+        replaceKeepingBackup(JsonHandling.convertJSON(snapshot), this.mainData, this.mainDataBackup);
+        Files.deleteIfExists(Paths.get(this.mappedData));
+    }
+
+    /**
+     * Captures the histories for saveMappedData. Called with walLock held.
+     * @param mapped Receives the records of every mapped history, by station.
+     * @return The records of the other histories, by station.
+     */
+    private Map<String, List<WeatherFormat>> captureMapped(Map<String, MappedStationHistory.Snapshot> mapped) {
+        Map<String, List<WeatherFormat>> others = new HashMap<>();
+        for (Map.Entry<String, StationHistory> entry : this.weatherData.entrySet()) {
+            StationHistory history = entry.getValue();
+            if (history instanceof MappedStationHistory) {
+                mapped.put(entry.getKey(), ((MappedStationHistory) history).snapshot());
+            } else {
+                others.put(entry.getKey(), history.toList());
+            }
         }
+        return others;
+    }
+
+    /**
+     * Writes the binary snapshot next to the old one, swaps it in and maps it.
+     * Mapped histories that did not change since they were captured are then pointed at the new file,
+     * so records saved before the snapshot leave the heap.
+     * @param mapped The captured mapped histories.
+     * @param others The captured records of other histories.
+     * @throws IOException If the snapshot cannot be written or mapped; the previous one stays in place.
+     */
+    private void saveMappedData(Map<String, MappedStationHistory.Snapshot> mapped,
+            Map<String, List<WeatherFormat>> others) throws IOException {
+        Path path = Paths.get(this.mappedData);
+        Path temp = Paths.get(this.mappedData + ".tmp");
+        Map<MappedStationHistory.Snapshot, int[]> written = new HashMap<>();
+        try (MappedRecordStore.Writer writer = new MappedRecordStore.Writer(temp)) {
+            for (Map.Entry<String, MappedStationHistory.Snapshot> entry : mapped.entrySet()) {
+                written.put(entry.getValue(), entry.getValue().writeTo(writer, entry.getKey()));
+            }
+            for (Map.Entry<String, List<WeatherFormat>> entry : others.entrySet()) {
+                for (WeatherFormat record : entry.getValue()) {
+                    writer.write(entry.getKey(), record);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(path.toAbsolutePath().getParent());
+        MappedRecordStore store = MappedRecordStore.open(path, null);
+        written.forEach((snapshot, offsets) -> snapshot.rebind(store, offsets));
+        Files.deleteIfExists(Paths.get(this.mainData));
     }
 
     /**
@@ -149,13 +707,49 @@ public class DatabaseManagement {
      * Helps track the last update time for each content server.
      */
     public void saveSenderData() {
-        try {
-            String jsonSenderData = JsonHandling.convertJSON(new ConcurrentHashMap<>(senderTimestamp));
-            Files.write(Paths.get(SENDER_FILE_PATH_BACKUP), jsonSenderData.getBytes());
-            Files.move(Paths.get(SENDER_FILE_PATH_BACKUP), Paths.get(SENDER_FILE_PATH), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } catch (Exception e) {
-            // e.printStackTrace();
+        this.writer.submit(() -> this.writeSenderJson(new HashMap<>(this.senderTimestamp))).exceptionally(e -> {
+            System.out.println("Error saving sender data: " + e.getMessage());
+            return null;
+        }).join();
+    }
+
+    private void writeSenderJson(Map<String, Long> senders) throws IOException {
+        replaceKeepingBackup(JsonHandling.convertJSON(senders), this.senderFilePath, this.senderFilePathBackup);
+    }
+
+    /**
+     * Writes a JSON snapshot next to the current one and atomically moves it into place.
+     * The new file and the directory entry are forced to disk before returning, as the caller truncates
+     * the write-ahead log next and the snapshot is then the only copy of acknowledged saves.
+     * The replaced file stays behind as the backup (a hard link where the file system has them), so
+     * loadDataFromFile has the previous snapshot to fall back on if the new one turns out corrupt.
+     * @param json The new contents.
+     * @param filePath The snapshot file.
+     * @param backupFilePath Its backup.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    private static void replaceKeepingBackup(String json, String filePath, String backupFilePath) throws IOException {
+        Path file = Paths.get(filePath);
+        Path backup = Paths.get(backupFilePath);
+        Path temp = Paths.get(filePath + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(json.getBytes());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
         }
+        if (Files.exists(file)) {
+            Files.deleteIfExists(backup);
+            try {
+                Files.createLink(backup, file);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(file, backup, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(file.toAbsolutePath().getParent());
     }
 
     /**
@@ -167,13 +761,17 @@ public class DatabaseManagement {
     public void saveTime(String key, long value) {
         System.out.println("Saving timestampe: " + key + " " + value);
         this.senderTimestamp.put(key, value);
+        if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+            this.changedSenders.put(key, value);
+        }
+        this.scheduleExpiry(key, value);
     }
 
     /**
      * Retrieves all weather data stored in the database.
-     * @return A map of station IDs to their respective weather data lists.
+     * @return A map of station IDs to their bounded histories.
      */
-    public Map<String, LinkedList<WeatherFormat>> getWeatherData() {
+    public Map<String, StationHistory> getWeatherData() {
         return this.weatherData;
     }
 
@@ -197,52 +795,204 @@ public class DatabaseManagement {
     /**
     * Retrieves weather data for a specific station.
     * @param key The station ID to retrieve data for.
-    * @return A LinkedList of WeatherFormat objects for the specified station.
+    * @return A copy of the station's records in Lamport order, or null if the station is unknown.
     */
     public LinkedList<WeatherFormat> getWeatherData(String key) {
-        return this.weatherData.get(key);
+        StationHistory history = this.weatherData.get(key);
+        return history != null ? history.toLinkedList() : null;
+    }
+
+    /**
+     * Finds the latest record of a station that is not after the given Lamport clock.
+     * @param key The station ID.
+     * @param lamport The requested Lamport clock.
+     * @return The matching record, or null if there is none.
+     */
+    public WeatherFormat getLatest(String key, int lamport) {
+        StationHistory history = this.weatherData.get(key);
+        return history != null ? history.latestAtOrBefore(lamport) : null;
     }
 
     /**
      * Periodically updates the database by removing expired data.
-     * Removes data from content servers that haven't sent updates within the expiration period.
+     * Only senders whose expiry is due are looked at, and only the stations they wrote to are touched.
+     * Nothing is logged unless a sender actually expired.
      */
     public void updateData(){
         try {
             System.out.println("Updating data, will remove data...");
             long currtime = System.currentTimeMillis();
-            ArrayList<String> sendersInvalid = new ArrayList<>();
-            for (String key : this.senderTimestamp.keySet()) {
-                long lastTime = this.senderTimestamp.get(key);
-                if (currtime - lastTime > EXPIRE_SAVE) {
-                    this.senderTimestamp.remove(key);
-                    sendersInvalid.add(key);
-                }
+            SenderExpiry due;
+            while ((due = this.expiryQueue.poll()) != null) {
+                this.expireSender(due.source, currtime);
             }
-
-            for (String stationID :this.weatherData.keySet()) {
-                LinkedList<WeatherFormat> data = this.weatherData.get(stationID);
-                data.removeIf(d -> sendersInvalid.contains(d.getSource()));
-                if (data.isEmpty()) {
-                    this.weatherData.remove(stationID);
-                    
+            if (this.historyMaxAge > 0) {
+                synchronized (this.walLock) {
+                    this.removeFromStations(this.weatherData.keySet(), d -> d.pruneExpired(currtime));
                 }
             }
-            this.saveWeatherData();
-            this.saveSenderData();
         } catch (Exception e) {
            throw new RuntimeException("Error updating data: " + e.getMessage());
         }
     }
 
+    /**
+     * Removes a sender and its records if it has not been seen within EXPIRE_SAVE,
+     * otherwise re-queues it for its new expiry time.
+     * @param source The sender whose expiry is due.
+     * @param currtime The current time in milliseconds.
+     */
+    private void expireSender(String source, long currtime) {
+        WriteAheadLog.Entry expiry = WriteAheadLog.Entry.expire(source);
+        long sequence;
+        synchronized (this.walLock) {
+            Long lastTime = this.senderTimestamp.get(source);
+            if (lastTime == null) {
+                this.expiryScheduled.remove(source);
+                return;
+            }
+            // Only remove the timestamp we checked; a concurrent saveTime keeps the sender alive
+            if (currtime - lastTime <= EXPIRE_SAVE || !this.senderTimestamp.remove(source, lastTime)) {
+                this.expiryQueue.add(new SenderExpiry(source, this.senderTimestamp.getOrDefault(source, lastTime)));
+                return;
+            }
+            this.expiryScheduled.remove(source);
+            // a saveTime between the removal above and now found the sender still scheduled and queued nothing
+            Long refreshed = this.senderTimestamp.get(source);
+            if (refreshed != null) {
+                this.scheduleExpiry(source, refreshed);
+            }
+            Set<String> stations = this.sourceStations.remove(source);
+            if (stations != null) {
+                this.removeFromStations(stations, d -> d.removeSource(source));
+            }
+            sequence = ++this.mutations;
+            if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+                this.changes.add(expiry);
+                this.changedSenders.remove(source);
+            }
+        }
+        this.writer.append(sequence, List.of(expiry));
+    }
+
+    /**
+     * Applies a removal to the given stations, dropping stations left empty and
+     * marking the highest Lamport stale if the record holding it went away.
+     * @param stations The stations to visit.
+     * @param removal The removal applied to each station history.
+     */
+    private void removeFromStations(Collection<String> stations, Consumer<StationHistory> removal) {
+        int highest = this.highestLamport.get();
+        for (String stationID : stations) {
+            this.weatherData.computeIfPresent(stationID, (k, data) -> {
+                boolean heldHighest = data.highestLamport() == highest;
+                int before = data.size();
+                removal.accept(data);
+                if (data.size() != before) {
+                    this.fireChange(stationID);
+                }
+                if (heldHighest && data.highestLamport() < highest) {
+                    this.highestLamportStale = true;
+                }
+                return data.isEmpty() ? null : data;
+            });
+        }
+    }
+
+    /**
+     * Remembers which stations a sender wrote to, so expiry only visits those.
+     * @param station The station ID.
+     * @param source The sender of the record.
+     */
+    private void index(String station, String source) {
+        if (source != null) {
+            this.sourceStations.computeIfAbsent(source, k -> ConcurrentHashMap.newKeySet()).add(station);
+        }
+    }
+
+    /**
+     * Queues a sender for expiry unless it is already queued.
+     * @param source The sender.
+     * @param lastTime The time the sender was last seen.
+     */
+    private void scheduleExpiry(String source, long lastTime) {
+        if (this.expiryScheduled.add(source)) {
+            this.expiryQueue.add(new SenderExpiry(source, lastTime));
+        }
+    }
+
+    /**
+     * Expiry queue entry, due EXPIRE_SAVE after the sender was last seen.
+     * A sender has one entry at a time; when it comes due the current timestamp decides
+     * whether the sender expires or is queued again.
+     */
+    private static class SenderExpiry implements Delayed {
+        private final String source;
+        private final long dueAt;
+
+        SenderExpiry(String source, long lastTime) {
+            this.source = source;
+            this.dueAt = lastTime + EXPIRE_SAVE;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other instanceof SenderExpiry) {
+                return Long.compare(this.dueAt, ((SenderExpiry) other).dueAt);
+            }
+            return Long.compare(this.getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Stops the background expiry and compaction, persists what is queued and closes the log.
+     * Only for stores created with the public constructor; the default store lives as long as the process.
+     */
+    public void close() {
+        this.updateDataSchedule.shutdownNow();
+        this.compact();
+        this.writer.close();
+        this.wal.close();
+    }
+
+    /**
+     * Drops every record, sender and scheduled expiry. Called with walLock held, or during startup.
+     */
+    private void reset() {
+        this.weatherData.clear();
+        this.senderTimestamp.clear();
+        this.sourceStations.clear();
+        this.expiryQueue.clear();
+        this.expiryScheduled.clear();
+        this.highestLamport.set(0);
+    }
+
     /**
      * Clears all data from the database.
      * Used for resetting the database or in testing scenarios.
      */
     public void clear(){
         try {
-            this.weatherData.clear();
-            this.senderTimestamp.clear();
+            WriteAheadLog.Entry clear = WriteAheadLog.Entry.clear();
+            long sequence;
+            synchronized (this.walLock) {
+                this.reset();
+                sequence = ++this.mutations;
+                if (this.snapshotFormat == SnapshotFormat.CHECKPOINTS) {
+                    // the reset is sealed in a delta, then the records before it are left behind in a new snapshot
+                    this.changes.add(clear);
+                    this.changedSenders.clear();
+                    this.fullCheckpointDue = true;
+                }
+            }
+            this.writer.append(sequence, List.of(clear));
+            this.compact();
+            this.fireChange(null);
         } catch (Exception e) {
             e.printStackTrace();
         }
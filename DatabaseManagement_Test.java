@@ -2,10 +2,12 @@ import static org.junit.Assert.assertNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.PriorityQueue;
 import java.nio.file.Files;
@@ -15,6 +17,9 @@ import java.nio.file.Paths;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonObject;
 
 public class DatabaseManagement_Test {
     private DatabaseManagement db;
@@ -86,4 +91,175 @@ public class DatabaseManagement_Test {
         assertNotNull(t);
         assertEquals(timestamp, t);
     }
+
+    @Test
+    public void testHighestLamportTracksSavesAndExpiry() {
+        db.clear();
+        long now = System.currentTimeMillis();
+        db.saveTime("expired-source", now - 60000);
+        db.saveData("TestStation1", new WeatherFormat(9, "expired-source", null));
+        db.saveTime("live-source", now);
+        db.saveData("TestStation2", new WeatherFormat(4, "live-source", null));
+        assertEquals(9, db.getHighestLamportClock());
+
+        db.updateData();
+
+        assertEquals(4, db.getHighestLamportClock());
+        assertNull(db.getWeatherData("TestStation1"));
+    }
+
+    @Test
+    public void testRefreshedSenderIsNotExpired() {
+        db.clear();
+        long now = System.currentTimeMillis();
+        db.saveTime("refreshed-source", now - 60000);
+        db.saveData("TestStation3", new WeatherFormat(1, "refreshed-source", null));
+        db.saveTime("refreshed-source", now);
+
+        db.updateData();
+
+        assertNotNull(db.getWeatherData("TestStation3"));
+        assertEquals(now, db.getSenderTimestamp("refreshed-source"));
+    }
+
+    @Test
+    public void testMappedStoreSurvivesRestart(@TempDir Path dir) {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "MappedStation");
+        data.addProperty("air_temp", 13.3);
+        DatabaseManagement store = new DatabaseManagement(dir.toString());
+        store.setMappedStore(true);
+        store.saveData("MappedStation", new WeatherFormat(1, "mapped-source", null)).join();
+        store.saveData("MappedStation", new WeatherFormat(2, "mapped-source", data)).join();
+        store.close();
+        assertTrue(Files.exists(dir.resolve("data.dat")));
+        assertFalse(Files.exists(dir.resolve("data.json")), "Only one snapshot format is kept");
+
+        DatabaseManagement reopened = new DatabaseManagement(dir.toString());
+        try {
+            assertTrue(reopened.getWeatherData().get("MappedStation") instanceof MappedStationHistory);
+            assertEquals(13.3, reopened.getLatest("MappedStation", 5).getReading().getAirTemp());
+            assertNull(reopened.getLatest("MappedStation", 1).getReading());
+            assertEquals("mapped-source", reopened.getLatest("MappedStation", 1).getSource());
+
+            // a new record is written into the next snapshot, and switching back writes JSON again
+            reopened.saveData("MappedStation", new WeatherFormat(3, "mapped-source", data)).join();
+            reopened.compact();
+            assertEquals(3, reopened.getLatest("MappedStation", 5).getLamport());
+            reopened.setMappedStore(false);
+            assertFalse(Files.exists(dir.resolve("data.dat")));
+            assertEquals(3, reopened.getWeatherData("MappedStation").size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testCheckpointsRecoverPastCorruptSnapshot(@TempDir Path dir) throws IOException {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "CheckpointStation");
+        long now = System.currentTimeMillis();
+        DatabaseManagement store = new DatabaseManagement(dir.toString());
+        store.setCheckpoints(true);
+        store.saveTime("checkpoint-source", now);
+        for (int lamport = 1; lamport <= 3; lamport++) {
+            store.saveData("CheckpointStation", new WeatherFormat(lamport, "checkpoint-source", data)).join();
+            store.compact();
+        }
+        store.close();
+        assertFalse(Files.exists(dir.resolve("data.json")), "Checkpoints replace the JSON snapshot");
+
+        // flip a byte of the newest snapshot; the previous one and the deltas after it still hold everything
+        Path newest;
+        try (var files = Files.list(dir)) {
+            newest = files.filter(f -> f.getFileName().toString().endsWith(".snap"))
+                .max(Comparator.comparingLong(f -> Long.parseLong(f.getFileName().toString().replaceAll("\\D", ""))))
+                .orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(newest);
+        bytes[bytes.length / 2] ^= 0x7f;
+        Files.write(newest, bytes);
+
+        DatabaseManagement reopened = new DatabaseManagement(dir.toString());
+        try {
+            assertEquals(3, reopened.getWeatherData("CheckpointStation").size());
+            assertEquals("CheckpointStation", reopened.getLatest("CheckpointStation", 3).getReading().getId());
+            assertEquals(now, reopened.getSenderTimestamp("checkpoint-source"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testClearSurvivesFallbackPastCorruptSnapshot(@TempDir Path dir) throws IOException {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "ClearedStation");
+        long now = System.currentTimeMillis();
+        DatabaseManagement store = new DatabaseManagement(dir.toString());
+        store.setCheckpoints(true);
+        store.saveTime("cleared-source", now);
+        store.saveData("ClearedStation", new WeatherFormat(1, "cleared-source", data)).join();
+        store.compact();
+        store.clear();
+        store.close();
+
+        // the snapshot written after the clear is lost; the one before it is all that is left to start from
+        Path newest;
+        try (var files = Files.list(dir)) {
+            newest = files.filter(f -> f.getFileName().toString().endsWith(".snap"))
+                .max(Comparator.comparingLong(f -> Long.parseLong(f.getFileName().toString().replaceAll("\\D", ""))))
+                .orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(newest);
+        bytes[bytes.length / 2] ^= 0x7f;
+        Files.write(newest, bytes);
+
+        DatabaseManagement reopened = new DatabaseManagement(dir.toString());
+        try {
+            assertNull(reopened.getWeatherData("ClearedStation"));
+            assertNull(reopened.getSenderTimestamp("cleared-source"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testHistoryLimitsApplyToLoadedStations(@TempDir Path dir) {
+        DatabaseManagement store = new DatabaseManagement(dir.toString());
+        store.setMappedStore(true);
+        for (int lamport = 1; lamport <= 5; lamport++) {
+            store.saveData("LimitedStation", new WeatherFormat(lamport, "limit-source", null)).join();
+        }
+        store.close();
+
+        DatabaseManagement reopened = new DatabaseManagement(dir.toString());
+        try {
+            assertEquals(5, reopened.getWeatherData("LimitedStation").size());
+            reopened.setHistoryLimits(2, 0);
+            assertTrue(reopened.getWeatherData().get("LimitedStation") instanceof MappedStationHistory);
+            assertEquals(2, reopened.getWeatherData("LimitedStation").size(), "Restored stations take the new limit");
+            assertEquals(4, reopened.getWeatherData("LimitedStation").peek().getLamport());
+            reopened.saveData("LimitedStation", new WeatherFormat(6, "limit-source", null)).join();
+            assertEquals(2, reopened.getWeatherData("LimitedStation").size());
+            assertEquals(6, reopened.getHighestLamportClock());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testCorruptJsonFallsBackToBackup(@TempDir Path dir) throws IOException {
+        DatabaseManagement store = new DatabaseManagement(dir.toString());
+        store.saveData("BackupStation", new WeatherFormat(1, "backup-source", null)).join();
+        store.compact();
+        store.close();
+        Files.write(dir.resolve("data.json"), "{\"BackupStation\": [".getBytes());
+
+        DatabaseManagement reopened = new DatabaseManagement(dir.toString());
+        try {
+            assertEquals(1, reopened.getLatest("BackupStation", 1).getLamport());
+        } finally {
+            reopened.close();
+        }
+    }
 }
@@ -0,0 +1,21 @@
+/**
+ * How accepted connections are executed by MainAggregationServer and AggregationServer.
+ */
+public enum ExecutionMode {
+    /** Sockets are queued on reqQueue and drained by the AggregationServer workers. */
+    QUEUE,
+    /** Every socket runs on its own (virtual when supported) thread, from accept to response. */
+    THREAD_PER_CONNECTION;
+
+    /**
+     * Parses the value of the --exec option.
+     * @param value "queue" or "per-connection".
+     * @return The matching mode, QUEUE when the value is unknown.
+     */
+    public static ExecutionMode fromOption(String value) {
+        if ("per-connection".equalsIgnoreCase(value) || "virtual".equalsIgnoreCase(value)) {
+            return THREAD_PER_CONNECTION;
+        }
+        return QUEUE;
+    }
+}
@@ -0,0 +1,30 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Sends every client to the current server and only moves on to the next one when it becomes unhealthy.
+ * This is the original MainAggregationServer behaviour.
+ */
+public class FailoverStrategy implements LoadBalancingStrategy {
+    private final AtomicInteger serverIndex = new AtomicInteger();
+
+    @Override
+    public AggregationServer select(List<AggregationServer> servers, Predicate<AggregationServer> healthy, String stationId) {
+        int size = servers.size();
+        for (int i = 0; i < size; i++) {
+            int index = this.serverIndex.get();
+            AggregationServer server = servers.get(index % size);
+            if (healthy.test(server)) {
+                return server;
+            }
+            this.serverIndex.compareAndSet(index, (index + 1) % size);
+        }
+        return null;
+    }
+
+    @Override
+    public String name() {
+        return "failover";
+    }
+}
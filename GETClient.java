@@ -1,3 +1,4 @@
+import java.util.List;
 import java.util.UUID;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonObject;
@@ -6,6 +7,8 @@ public class GETClient {
     private SocketServer server;
     private String clientId;
     private Lamport clock;
+    private boolean compact = true;
+    private boolean keepAlive = true;
 
     public GETClient(SocketServer server){
         this.server = server;
@@ -13,6 +16,22 @@ public class GETClient {
         this.clientId = UUID.randomUUID().toString();
     }
 
+    /**
+     * Chooses whether to ask the server for compact (default) or pretty-printed JSON.
+     * @param compact True to request compact JSON.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Chooses whether requests ask the server to keep the connection open for the next poll (default).
+     * @param keepAlive True to reuse one connection across requests.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
     /**
      * Sends a request to the aggregation server and processes the response.
      * Implements retry logic and handles various server responses.
@@ -22,6 +41,22 @@ public class GETClient {
      * @return A JsonObject containing the weather data, or null if the request failed.
      */
     public JsonObject sendRequest(String serverName, int port, String stationID) {
+        return this.get(serverName, port, stationID != null ? "StationID: " + stationID + "\r\n" : "", false);
+    }
+
+    /**
+     * Sends one GET for several stations instead of a round trip per station.
+     * @param serverName The hostname of the aggregation server.
+     * @param port The port number of the aggregation server.
+     * @param stationIDs The stations to query, or null for every station.
+     * @return A JsonObject mapping each station ID to its latest reading, or null if there is none or the request failed.
+     */
+    public JsonObject sendBulkRequest(String serverName, int port, List<String> stationIDs) {
+        String stations = stationIDs == null ? "*" : String.join(",", stationIDs);
+        return this.get(serverName, port, "StationIDs: " + stations + "\r\n", true);
+    }
+
+    private JsonObject get(String serverName, int port, String stationHeader, boolean bulk) {
         JsonObject response = null;
         int retry = 0;
         while (retry < 3) {
@@ -30,8 +65,10 @@ public class GETClient {
                 this.clock.adjust(getLamportServer);
                 String getRequest = "GET /data.json HTTP/1.1\r\n" +
                                     "LamportClock: " + this.clock.getTime() + "\r\n" +
+                                    (this.compact ? "Accept: " + JsonHandling.COMPACT_TYPE + "\r\n" : "") +
                                     "Source: " + this.clientId + "\r\n" +
-                                    (stationID != null ? "StationID: " + stationID + "\r\n" : "") +
+                                    (this.keepAlive ? "Connection: keep-alive\r\n" : "") +
+                                    stationHeader +
                                     "\r\n";
                 String res = this.server.requestAndGetData(serverName, port, getRequest, false);
                 System.out.println(res);
@@ -57,7 +94,10 @@ public class GETClient {
                         break;
                 }
     
-                response = JsonHandling.parseJSONObject(JsonHandling.extractJSONContent(res));
+                // a bulk body nests one object per station, so it is parsed whole
+                response = JsonHandling.parseJSONObject(bulk
+                    ? res.substring(res.indexOf("\r\n\r\n") + 4)
+                    : JsonHandling.extractJSONContent(res));
                 return response;
             } catch (JsonParseException e) {
                 System.out.println("Error parsing the server's JSON response: " + e.getMessage());
@@ -119,7 +159,24 @@ public class GETClient {
         int port = Integer.parseInt(serverInfo[1]);
         SocketServer socketServer = new SocketServer();
         GETClient client = new GETClient(socketServer);
+        client.setCompact(false);
+        client.setKeepAlive(false);
         System.out.println("Connecting: " + serverName + ":" + port);
+        if (stationID != null && (stationID.equals("*") || stationID.contains(","))) {
+            // several stations in one request: "*" or a comma separated list
+            JsonObject stations = client.sendBulkRequest(serverName, port, stationID.equals("*") ? null : List.of(stationID.split(",")));
+            if (stations != null) {
+                for (String station : stations.keySet()) {
+                    try {
+                        System.out.println();
+                        System.out.print(JsonHandling.convertJSONToText(stations.getAsJsonObject(station)));
+                    } catch (Exception e) {
+                        throw new RuntimeException("Error while converting JSON to text.", e);
+                    }
+                }
+            }
+            return;
+        }
         JsonObject response = client.sendRequest(serverName, port, stationID);
         if (response != null) {
             try {
@@ -0,0 +1,86 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Keeps an in-memory view of which backends are healthy.
+ * A background thread probes every backend periodically, and the load balancer reports failures
+ * it observes while handing over clients, so picking a backend never has to open a connection.
+ * @param <T> The backend type: in-process AggregationServers or proxied addresses.
+ */
+public class HealthChecker<T> {
+    private final List<T> targets;
+    private final Predicate<T> probe;
+    private final Map<T, Boolean> healthy = new ConcurrentHashMap<>();
+    private final long intervalMillis;
+    private ScheduledExecutorService prober;
+
+    /**
+     * Backends are assumed healthy until a probe or a failed hand-over says otherwise.
+     * @param targets The backends to watch.
+     * @param probe Checks one backend; runs on the background thread only.
+     * @param intervalMillis The delay between probe rounds.
+     */
+    public HealthChecker(List<T> targets, Predicate<T> probe, long intervalMillis) {
+        this.targets = targets;
+        this.probe = probe;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts probing in the background.
+     */
+    public synchronized void start() {
+        if (this.prober != null) {
+            return;
+        }
+        this.prober = Executors.newSingleThreadScheduledExecutor(ServerThreads.factory("health-check", false));
+        this.prober.scheduleWithFixedDelay(this::probeAll, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing.
+     */
+    public synchronized void stop() {
+        if (this.prober != null) {
+            this.prober.shutdownNow();
+            this.prober = null;
+        }
+    }
+
+    /**
+     * Probes every backend once and records the result.
+     */
+    public void probeAll() {
+        for (T target : this.targets) {
+            boolean up = this.probe.test(target);
+            Boolean previous = this.healthy.put(target, up);
+            if (previous == null || previous != up) {
+                System.out.println("Health of " + target + ": " + (up ? "up" : "down"));
+            }
+        }
+    }
+
+    /**
+     * @param target The backend to look up.
+     * @return Whether the backend is currently considered healthy. No I/O is performed.
+     */
+    public boolean isHealthy(T target) {
+        return this.healthy.getOrDefault(target, true);
+    }
+
+    /**
+     * Passive failure signal: the backend could not take a client.
+     * It stays out of rotation until a probe sees it up again.
+     * @param target The failed backend.
+     */
+    public void markFailed(T target) {
+        if (!Boolean.FALSE.equals(this.healthy.put(target, false))) {
+            System.out.println(target + " failed, removed from rotation");
+        }
+    }
+}
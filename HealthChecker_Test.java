@@ -0,0 +1,84 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HealthChecker_Test {
+
+    @Test
+    void testProbesAndPassiveFailures() throws InterruptedException {
+        AggregationServer up = new AggregationServer(new SocketServer());
+        AggregationServer down = new AggregationServer(new SocketServer());
+        new Thread(() -> up.start(5590)).start();
+        Thread.sleep(500);
+
+        HealthChecker<AggregationServer> health = new HealthChecker<>(List.of(up, down), AggregationServer::isUp, 1000);
+        assertTrue(health.isHealthy(up));
+        assertTrue(health.isHealthy(down));
+
+        health.probeAll();
+        assertTrue(health.isHealthy(up));
+        assertFalse(health.isHealthy(down));
+
+        health.markFailed(up);
+        assertFalse(health.isHealthy(up));
+        health.probeAll();
+        assertTrue(health.isHealthy(up), "A probe should bring a failed but running server back");
+
+        up.stop();
+        health.probeAll();
+        assertFalse(health.isHealthy(up));
+    }
+
+    @Test
+    void testInProcessServersStayHealthyOverManyRounds() throws InterruptedException {
+        AggregationServer first = new AggregationServer(new SocketServer());
+        AggregationServer second = new AggregationServer(new SocketServer());
+        new Thread(() -> first.start(5597)).start();
+        new Thread(() -> second.start(5598)).start();
+        Thread.sleep(500);
+
+        // more rounds than a listen backlog holds, as probes of servers that never accept would pile up there
+        AtomicInteger probes = new AtomicInteger();
+        HealthChecker<AggregationServer> health = new HealthChecker<>(List.of(first, second), server -> {
+            probes.incrementAndGet();
+            return server.isUp();
+        }, 5);
+        health.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (probes.get() < 2 * 80 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(probes.get() >= 2 * 80, "The checker should have run at least 80 rounds");
+            assertTrue(health.isHealthy(first));
+            assertTrue(health.isHealthy(second));
+        } finally {
+            health.stop();
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    void testMainSkipsStoppedServerWithoutProbe() throws InterruptedException {
+        AggregationServer first = new AggregationServer(new SocketServer());
+        AggregationServer second = new AggregationServer(new SocketServer());
+        new Thread(() -> first.start(5591)).start();
+        new Thread(() -> second.start(5592)).start();
+        Thread.sleep(500);
+        MainAggregationServer main = new MainAggregationServer(new SocketServer(), List.of(first, second), 60000);
+        main.start(5593);
+
+        first.stop();
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", 5593);
+        assertSame(second, main.getActiveServer(), "The stopped server should be out of rotation after one failed hand-over");
+
+        contentServer.shutdown();
+        main.shutdown();
+        first.clearData();
+    }
+}
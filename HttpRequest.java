@@ -0,0 +1,123 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A request parsed by HttpRequestParser.
+ * The body is a view of the bytes the request was parsed from, so it is only decoded by whoever reads it.
+ */
+public class HttpRequest {
+    private final String method;
+    private final String path;
+    private final Map<String, String> headers;
+    private final ByteBuffer body;
+
+    HttpRequest(String method, String path, Map<String, String> headers, ByteBuffer body) {
+        this.method = method;
+        this.path = path;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @return The method of the request line, e.g. "GET".
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return The path of the request line, or an empty string if it has none.
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * @param name The header name, matched ignoring case.
+     * @return The header value, or null if the header is absent.
+     */
+    public String getHeader(String name) {
+        return this.headers.get(name);
+    }
+
+    /**
+     * @return Every header, looked up ignoring case.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(this.headers);
+    }
+
+    /**
+     * @return true if the request asks to keep the connection open.
+     */
+    public boolean isKeepAlive() {
+        String connection = this.headers.get("Connection");
+        return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
+
+    /**
+     * @return A read-only view of the body bytes.
+     */
+    public ByteBuffer getBody() {
+        return this.body.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The body length in bytes.
+     */
+    public int getBodyLength() {
+        return this.body.remaining();
+    }
+
+    /**
+     * Checks the first non-whitespace byte of the body, e.g. '[' for a batch PUT.
+     * @param c The expected character.
+     * @return true if the body starts with c.
+     */
+    public boolean bodyStartsWith(char c) {
+        for (int i = this.body.position(); i < this.body.limit(); i++) {
+            byte b = this.body.get(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == c;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the body as it is read, for handing it straight to the JSON decoder.
+     * @return A reader over the body.
+     */
+    public Reader bodyReader() {
+        if (this.body.hasArray()) {
+            return new InputStreamReader(new ByteArrayInputStream(this.body.array(),
+                this.body.arrayOffset() + this.body.position(), this.body.remaining()), StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[this.body.remaining()];
+        this.body.duplicate().get(bytes);
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The body decoded as a String.
+     */
+    public String bodyText() {
+        return StandardCharsets.UTF_8.decode(this.body.duplicate()).toString();
+    }
+
+    /**
+     * @return The request as text: request line, headers and body.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(this.method).append(' ').append(this.path).append(" HTTP/1.1\r\n");
+        this.headers.forEach((name, value) -> text.append(name).append(": ").append(value).append("\r\n"));
+        return text.append("\r\n").append(this.bodyText()).toString();
+    }
+}
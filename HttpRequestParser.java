@@ -0,0 +1,205 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental parser for the requests of this protocol, working on the received bytes.
+ * The request line and headers are scanned in place without regex splits; only header names and values
+ * become Strings. Content-Length is read straight from the bytes and the body is handed out as a view of
+ * the input rather than a copy. A parser keeps its progress on a partially received request, so feeding it
+ * a growing buffer does not scan the same header bytes twice.
+ * Requests whose headers or body exceed the limits below are rejected with an IllegalArgumentException.
+ */
+public class HttpRequestParser {
+    public static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+    public static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    // bytes of the pending request already searched for the end of the headers
+    private int scanned;
+    // set once the headers of the pending request are parsed
+    private int headerLength = -1;
+    private int contentLength;
+    private String method;
+    private String path;
+    private Map<String, String> headers;
+
+    /**
+     * Takes the next complete request from the buffer.
+     * Line breaks left between pipelined requests are skipped.
+     * @param buffer The received bytes, from its position to its limit.
+     * @return The request, with the buffer's position moved past it; or null if it is not complete yet,
+     *         with the position left at its start so more bytes can be appended and the call repeated.
+     * @throws IllegalArgumentException If the headers or the announced body are too long.
+     */
+    public HttpRequest next(ByteBuffer buffer) {
+        skipLineBreaks(buffer);
+        int start = buffer.position();
+        if (this.headerLength < 0) {
+            int end = findHeaderEnd(buffer, start + Math.max(0, this.scanned - 3));
+            if (end == -1) {
+                this.scanned = buffer.limit() - start;
+                if (this.scanned > MAX_HEADER_LENGTH) {
+                    throw new IllegalArgumentException("Request headers longer than " + MAX_HEADER_LENGTH + " bytes");
+                }
+                return null;
+            }
+            this.parseHead(buffer, start, end);
+            this.headerLength = end - start;
+        }
+        int bodyStart = start + this.headerLength;
+        if (buffer.limit() - bodyStart < this.contentLength) {
+            return null;
+        }
+        int bodyEnd = bodyStart + this.contentLength;
+        HttpRequest request = this.build(buffer, bodyStart, bodyEnd);
+        buffer.position(bodyEnd);
+        this.scanned = 0;
+        this.headerLength = -1;
+        return request;
+    }
+
+    /**
+     * Parses a request that was already read in full, e.g. one passed to AggregationServer.normalizeReq as text.
+     * Everything after the headers is the body, as the reader already cut it at Content-Length bytes.
+     * @param request The request text.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the announced body is too long.
+     */
+    public static HttpRequest parse(String request) {
+        ByteBuffer buffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8));
+        HttpRequestParser parser = new HttpRequestParser();
+        skipLineBreaks(buffer);
+        int start = buffer.position();
+        int end = findHeaderEnd(buffer, start);
+        if (end == -1) {
+            end = buffer.limit();
+        }
+        parser.parseHead(buffer, start, end);
+        return parser.build(buffer, end, buffer.limit());
+    }
+
+    private HttpRequest build(ByteBuffer buffer, int bodyStart, int bodyEnd) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyStart);
+        body.limit(bodyEnd);
+        return new HttpRequest(this.method, this.path, this.headers, body.slice());
+    }
+
+    /**
+     * Reads the request line and the headers between start and end.
+     */
+    private void parseHead(ByteBuffer buffer, int start, int end) {
+        this.method = "";
+        this.path = "";
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.contentLength = 0;
+        int lineStart = start;
+        boolean requestLine = true;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                break;
+            }
+            if (requestLine) {
+                this.parseRequestLine(buffer, lineStart, lineEnd);
+                requestLine = false;
+            } else {
+                this.parseHeader(buffer, lineStart, lineEnd);
+            }
+            lineStart = next;
+        }
+    }
+
+    private void parseRequestLine(ByteBuffer buffer, int from, int to) {
+        int space = indexOf(buffer, from, to, (byte) ' ');
+        this.method = text(buffer, from, space);
+        if (space < to) {
+            int pathEnd = indexOf(buffer, space + 1, to, (byte) ' ');
+            this.path = text(buffer, space + 1, pathEnd);
+        }
+    }
+
+    private void parseHeader(ByteBuffer buffer, int from, int to) {
+        int colon = indexOf(buffer, from, to, (byte) ':');
+        if (colon == to) {
+            return;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < to && isSpace(buffer.get(valueStart))) {
+            valueStart++;
+        }
+        int valueEnd = to;
+        while (valueEnd > valueStart && isSpace(buffer.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+        int nameEnd = colon;
+        while (nameEnd > from && isSpace(buffer.get(nameEnd - 1))) {
+            nameEnd--;
+        }
+        String name = text(buffer, from, nameEnd);
+        if (name.equalsIgnoreCase("Content-Length")) {
+            int length = 0;
+            for (int i = valueStart; i < valueEnd; i++) {
+                byte digit = buffer.get(i);
+                if (digit < '0' || digit > '9') {
+                    break;
+                }
+                if (length > (MAX_CONTENT_LENGTH - (digit - '0')) / 10) {
+                    throw new IllegalArgumentException("Content-Length exceeds " + MAX_CONTENT_LENGTH + " bytes");
+                }
+                length = length * 10 + (digit - '0');
+            }
+            this.contentLength = length;
+        }
+        this.headers.put(name, text(buffer, valueStart, valueEnd));
+    }
+
+    private static void skipLineBreaks(ByteBuffer buffer) {
+        int position = buffer.position();
+        while (position < buffer.limit() && (buffer.get(position) == '\r' || buffer.get(position) == '\n')) {
+            position++;
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * @return The index just past the blank line ending the headers, or -1 if it has not arrived yet.
+     */
+    private static int findHeaderEnd(ByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit - 1; i++) {
+            if (buffer.get(i) != '\n') continue;
+            if (buffer.get(i + 1) == '\n') return i + 2;
+            if (i + 2 < limit && buffer.get(i + 1) == '\r' && buffer.get(i + 2) == '\n') return i + 3;
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return to;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static String text(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[to - from];
+        buffer.duplicate().position(from).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
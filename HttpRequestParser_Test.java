@@ -0,0 +1,89 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+class HttpRequestParser_Test {
+
+    @Test
+    void testParseKeepsBodyIntact() {
+        String body = "{\n  \"id\": \"IDS60901\",\n  \"name\": \"Line\\nbreak\"\n}";
+        HttpRequest request = HttpRequestParser.parse("PUT /data.json HTTP/1.1\r\n" +
+                "content-type:application/json\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n" + body);
+        assertEquals("PUT", request.getMethod());
+        assertEquals("/data.json", request.getPath());
+        assertEquals("application/json", request.getHeader("Content-Type"), "Header names ignore case and spacing");
+        assertTrue(request.isKeepAlive());
+        assertEquals(body, request.bodyText(), "Pretty printed bodies keep their line breaks");
+
+        JsonObject json = JsonParser.parseReader(request.bodyReader()).getAsJsonObject();
+        assertEquals("Line\nbreak", json.get("name").getAsString());
+
+        HttpRequest get = HttpRequestParser.parse("GET /data.json HTTP/1.1\r\nStationID: IDS60901\r\n\r\n");
+        assertEquals("IDS60901", get.getHeader("stationid"));
+        assertFalse(get.isKeepAlive());
+        assertEquals(0, get.getBodyLength());
+    }
+
+    @Test
+    void testIncrementalPipelinedRequests() {
+        String put = "{\"id\":\"IDS60901\"}";
+        byte[] stream = ("PUT /data.json HTTP/1.1\r\nContent-Length: " + put.length() + "\r\n\r\n" + put +
+                "\r\nGET /data.json HTTP/1.1\nStationID: IDS60902\n\n").getBytes(StandardCharsets.UTF_8);
+
+        // bytes arrive one at a time; a request is returned only once it is complete
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.allocate(stream.length);
+        int parsed = 0;
+        HttpRequest first = null;
+        HttpRequest second = null;
+        for (byte b : stream) {
+            buffer.put(b);
+            buffer.flip();
+            buffer.position(parsed);
+            HttpRequest request = parser.next(buffer);
+            parsed = buffer.position();
+            buffer.position(buffer.limit());
+            buffer.limit(buffer.capacity());
+            if (request == null) continue;
+            if (first == null) {
+                first = request;
+            } else {
+                assertNull(second, "Only two requests were sent");
+                second = request;
+            }
+        }
+        assertNotNull(first);
+        assertEquals("PUT", first.getMethod());
+        assertEquals(put, first.bodyText());
+        assertTrue(first.bodyStartsWith('{'));
+        assertNotNull(second);
+        assertEquals("GET", second.getMethod());
+        assertEquals("IDS60902", second.getHeader("StationID"));
+        assertEquals(stream.length, parsed);
+    }
+
+    @Test
+    void testOversizedRequestsAreRejected() {
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer overflow = ByteBuffer.wrap("PUT /data.json HTTP/1.1\r\nContent-Length: 3000000000\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> parser.next(overflow),
+            "A length that does not fit an int must not wrap around");
+
+        ByteBuffer endless = ByteBuffer.allocate(HttpRequestParser.MAX_HEADER_LENGTH + 100);
+        endless.put("GET /data.json HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+        while (endless.hasRemaining()) {
+            endless.put((byte) 'x');
+        }
+        endless.flip();
+        assertThrows(IllegalArgumentException.class, () -> new HttpRequestParser().next(endless));
+    }
+}
@@ -10,6 +10,13 @@ import java.util.Map.Entry;
 
 public class JsonHandling {
     private static final Gson gson = new Gson();
+    private static final Gson prettyGson = new GsonBuilder().setPrettyPrinting().create();
+
+    /** Media type parameter that asks for (or marks) compact JSON on the wire. */
+    public static final String COMPACT_PARAM = "format=compact";
+    public static final String COMPACT_TYPE = "application/json; " + COMPACT_PARAM;
+    // Content-Type of a batch PUT sent as newline delimited JSON, one reading per line
+    public static final String NDJSON_TYPE = "application/x-ndjson";
 
     private JsonHandling() {}
 
@@ -58,10 +65,55 @@ public class JsonHandling {
 
 
     public static String prettier(JsonObject jsonObject) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return prettyGson.toJson(jsonObject);
+    }
+
+    /**
+     * Serializes without whitespace, for the wire.
+     * @param jsonObject The object to serialize.
+     * @return The compact JSON string.
+     */
+    public static String compact(JsonObject jsonObject) {
         return gson.toJson(jsonObject);
     }
 
+    /**
+     * Serializes in the negotiated wire format.
+     * @param jsonObject The object to serialize.
+     * @param compact Whether the peer asked for compact JSON.
+     * @return The serialized JSON string.
+     */
+    public static String serialize(JsonObject jsonObject, boolean compact) {
+        return compact ? compact(jsonObject) : prettier(jsonObject);
+    }
+
+    /**
+     * Serializes a stored reading straight from its typed fields.
+     * @param reading The reading.
+     * @param compact True for compact output, false for pretty-printed.
+     * @return The JSON text.
+     */
+    public static String serialize(WeatherReading reading, boolean compact) {
+        return compact ? gson.toJson(reading) : prettyGson.toJson(reading);
+    }
+
+    /**
+     * Checks whether an Accept or Content-Type header value carries the compact format parameter.
+     * @param headerValue The header value (may be null).
+     * @return True if compact JSON was negotiated.
+     */
+    public static boolean wantsCompact(String headerValue) {
+        if (headerValue == null) {
+            return false;
+        }
+        for (String param : headerValue.split(";")) {
+            if (param.trim().equalsIgnoreCase(COMPACT_PARAM)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static <T> T convertObject(String jsonString, Type type) throws JsonSyntaxException {
         return gson.fromJson(jsonString, type);
     }
@@ -59,6 +59,20 @@ class JsonHandling_Test {
         assertTrue(result.contains("}"));
     }
 
+    @Test
+    void testCompactNegotiation() {
+        JsonObject input = new JsonObject();
+        input.addProperty("name", "John");
+        input.addProperty("age", 30);
+
+        assertEquals("{\"name\":\"John\",\"age\":30}", JsonHandling.serialize(input, true));
+        assertEquals(JsonHandling.prettier(input), JsonHandling.serialize(input, false));
+        assertTrue(JsonHandling.wantsCompact("application/json; format=compact"));
+        assertTrue(JsonHandling.wantsCompact(JsonHandling.COMPACT_TYPE));
+        assertFalse(JsonHandling.wantsCompact("application/json"));
+        assertFalse(JsonHandling.wantsCompact(null));
+    }
+
     @Test
     void testConvertObject() {
         String jsonString = "{\"name\":\"John\",\"age\":30}";
@@ -24,6 +24,10 @@ public class Lamport {
         return time.get();
     }
 
+    public void advanceTo(int timeStampt) {
+        time.accumulateAndGet(timeStampt, Math::max);
+    }
+
     public void setClock(int newTime) {
         time.set(newTime);
     }
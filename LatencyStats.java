@@ -0,0 +1,49 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request latency counters for one load-balancing strategy, measured from hand-over to the
+ * AggregationServer until its response has been written.
+ */
+public class LatencyStats {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one completed request.
+     * @param nanos Its latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public double getMeanMillis() {
+        long n = this.count.sum();
+        return n == 0 ? 0 : this.totalNanos.sum() / (n * 1_000_000.0);
+    }
+
+    public double getMaxMillis() {
+        return this.maxNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d requests, mean %.2f ms, max %.2f ms", this.name, this.getCount(), this.getMeanMillis(), this.getMaxMillis());
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sends the client to the healthy server with the fewest queued or in-flight requests.
+ * Ties are broken in rotation so idle servers share the load.
+ */
+public class LeastOutstandingStrategy implements LoadBalancingStrategy {
+    private final AtomicInteger offset = new AtomicInteger();
+
+    @Override
+    public AggregationServer select(List<AggregationServer> servers, Predicate<AggregationServer> healthy, String stationId) {
+        return this.select(servers, healthy, AggregationServer::getOutstandingRequests);
+    }
+
+    /**
+     * Picks the healthy server with the fewest outstanding requests as reported by the given function.
+     * @param servers The servers, in configuration order.
+     * @param healthy In-memory health lookup.
+     * @param outstanding The number of queued or in-flight requests of a server.
+     * @return The chosen server, or null if none is healthy.
+     */
+    <T> T select(List<T> servers, Predicate<T> healthy, ToIntFunction<T> outstanding) {
+        int size = servers.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = Math.floorMod(this.offset.getAndIncrement(), size);
+        T best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            T server = servers.get((start + i) % size);
+            if (!healthy.test(server)) {
+                continue;
+            }
+            int count = outstanding.applyAsInt(server);
+            if (count < bestOutstanding) {
+                best = server;
+                bestOutstanding = count;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String name() {
+        return "least-outstanding";
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Chooses which AggregationServer receives a client. Implementations must be thread safe:
+ * MainAggregationServer may call select from several connection threads at once.
+ */
+public interface LoadBalancingStrategy {
+
+    /**
+     * Picks a healthy server.
+     * @param servers All managed servers, in configuration order.
+     * @param healthy In-memory health lookup; must not be used to do I/O.
+     * @param stationId The StationID header of the request, or null if unknown.
+     * @return The chosen server, or null if none is healthy.
+     */
+    AggregationServer select(List<AggregationServer> servers, Predicate<AggregationServer> healthy, String stationId);
+
+    /**
+     * @return The option name of the strategy, used to label its latency counters.
+     */
+    String name();
+
+    /**
+     * Strategies that route on the StationID need MainAggregationServer to read the request before handing it over.
+     * @return true if select uses the stationId argument.
+     */
+    default boolean usesStationId() {
+        return false;
+    }
+
+    /**
+     * Maps the --balance option to a strategy.
+     * @param option "failover" (default), "weighted", "least-outstanding" or "station".
+     * @param weights Comma separated weights for "weighted", in server order (may be null).
+     * @return The strategy.
+     */
+    static LoadBalancingStrategy fromOption(String option, String weights) {
+        switch (option.toLowerCase()) {
+            case "weighted":
+            case "round-robin":
+                return new WeightedRoundRobinStrategy(WeightedRoundRobinStrategy.parseWeights(weights));
+            case "least-outstanding":
+                return new LeastOutstandingStrategy();
+            case "station":
+            case "station-affinity":
+                return new StationAffinityStrategy();
+            default:
+                return new FailoverStrategy();
+        }
+    }
+}
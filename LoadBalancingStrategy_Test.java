@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+
+class LoadBalancingStrategy_Test {
+
+    private List<AggregationServer> servers(int count) {
+        List<AggregationServer> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            servers.add(new AggregationServer(new SocketServer()));
+        }
+        return servers;
+    }
+
+    @Test
+    void testFailoverStaysUntilUnhealthy() {
+        List<AggregationServer> servers = servers(3);
+        LoadBalancingStrategy strategy = new FailoverStrategy();
+
+        assertSame(servers.get(0), strategy.select(servers, s -> true, null));
+        assertSame(servers.get(0), strategy.select(servers, s -> true, null));
+        assertSame(servers.get(1), strategy.select(servers, s -> s != servers.get(0), null));
+        assertSame(servers.get(1), strategy.select(servers, s -> true, null));
+        assertNull(strategy.select(servers, s -> false, null));
+    }
+
+    @Test
+    void testWeightedRoundRobin() {
+        List<AggregationServer> servers = servers(3);
+        LoadBalancingStrategy strategy = LoadBalancingStrategy.fromOption("weighted", "2,1");
+
+        Map<AggregationServer, Integer> turns = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            turns.merge(strategy.select(servers, s -> true, null), 1, Integer::sum);
+        }
+        assertEquals(4, turns.get(servers.get(0)));
+        assertEquals(2, turns.get(servers.get(1)));
+        assertEquals(2, turns.get(servers.get(2)));
+
+        for (int i = 0; i < 8; i++) {
+            assertNotSame(servers.get(0), strategy.select(servers, s -> s != servers.get(0), null));
+        }
+    }
+
+    @Test
+    void testLeastOutstandingPrefersIdleServer() {
+        List<String> servers = List.of("busy", "idle");
+        Map<String, Integer> outstanding = Map.of("busy", 1, "idle", 0);
+        LeastOutstandingStrategy strategy = new LeastOutstandingStrategy();
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("idle", strategy.select(servers, s -> true, outstanding::get));
+        }
+        assertEquals("busy", strategy.select(servers, s -> s.equals("busy"), outstanding::get));
+        assertNull(strategy.select(servers, s -> false, outstanding::get));
+    }
+
+    @Test
+    void testStationAffinityIsStableAndFailsOver() {
+        List<AggregationServer> servers = servers(3);
+        LoadBalancingStrategy strategy = new StationAffinityStrategy();
+
+        Map<AggregationServer, Integer> owners = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            String station = "IDS" + i;
+            AggregationServer owner = strategy.select(servers, s -> true, station);
+            assertSame(owner, strategy.select(servers, s -> true, station));
+            owners.merge(owner, 1, Integer::sum);
+
+            AggregationServer moved = strategy.select(servers, s -> s != owner, station);
+            assertNotNull(moved);
+            assertNotSame(owner, moved);
+        }
+        assertEquals(3, owners.size(), "Every server should own some stations");
+    }
+
+    @Test
+    void testStationRoutingThroughMain() throws InterruptedException {
+        List<AggregationServer> servers = servers(2);
+        new Thread(() -> servers.get(0).start(5594)).start();
+        new Thread(() -> servers.get(1).start(5595)).start();
+        Thread.sleep(500);
+        MainAggregationServer main = new MainAggregationServer(new SocketServer(), servers);
+        main.setStrategy(new StationAffinityStrategy());
+        main.start(5596);
+
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", 5596);
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject res = client.sendRequest("localhost", 5596, "IDS60901");
+
+        assertNotNull(res);
+        assertEquals("IDS60901", res.get("id").getAsString());
+        assertEquals("station", main.getLatencyStats().getName());
+        for (int i = 0; i < 20 && main.getLatencyStats().getCount() < 2; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, main.getLatencyStats().getCount());
+        assertEquals("IDS60901", HttpRequestParser.parse("GET /data.json HTTP/1.1\r\nStationID: IDS60901\r\n\r\n")
+            .getHeader("StationID"));
+
+        contentServer.shutdown();
+        client.shutdown();
+        main.shutdown();
+        servers.get(0).clearData();
+    }
+}
@@ -1,9 +1,11 @@
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
@@ -11,15 +13,58 @@ import com.google.gson.JsonSyntaxException;
 
 public class MainAggregationServer {
     private static final int PORT = 4567;
-    private int serverIndex = 0;
+    private static final long HEALTH_INTERVAL = 1000;
     private SocketServer socketServer;
     private List<AggregationServer> servers;
     private boolean isDown;
     private static final String LAMPORT_FILE_PATH = "data" + File.separator + "lamport.json";
     private Lamport globalLamport = new Lamport();
+    private ExecutionMode executionMode = ExecutionMode.QUEUE;
+    private ThreadFactory connectionThreads = ServerThreads.factory("main-connection", true);
+    private HealthChecker<AggregationServer> health;
+    private LoadBalancingStrategy strategy = new FailoverStrategy();
+    private volatile LatencyStats latency = new LatencyStats(this.strategy.name());
     public MainAggregationServer(SocketServer server, List<AggregationServer> servers) {
+        this(server, servers, HEALTH_INTERVAL);
+    }
+
+    /**
+     * @param server The socket server clients connect to.
+     * @param servers The AggregationServers to balance over.
+     * @param healthIntervalMillis The delay between background health probes.
+     */
+    public MainAggregationServer(SocketServer server, List<AggregationServer> servers, long healthIntervalMillis) {
         this.socketServer = server;
         this.servers = servers;
+        this.health = new HealthChecker<>(servers, AggregationServer::isUp, healthIntervalMillis);
+        for (AggregationServer aggregationServer : servers) {
+            aggregationServer.setLatencyListener(nanos -> this.latency.record(nanos));
+        }
+    }
+
+    /**
+     * Replaces the load-balancing strategy and starts fresh latency counters for it.
+     * @param strategy The strategy.
+     */
+    public void setStrategy(LoadBalancingStrategy strategy) {
+        this.strategy = strategy;
+        this.latency = new LatencyStats(strategy.name());
+    }
+
+    /**
+     * @return The latency counters of the current strategy.
+     */
+    public LatencyStats getLatencyStats() {
+        return this.latency;
+    }
+
+    /**
+     * Chooses whether connections are queued on the AggregationServers or run on their own thread each.
+     * In THREAD_PER_CONNECTION mode the managed servers should use the same mode.
+     * @param mode The execution mode.
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.executionMode = mode;
     }
 
     /**
@@ -29,6 +74,7 @@ public class MainAggregationServer {
      */
     public void start(int port) {
         this.socketServer.start(port);
+        this.health.start();
         this.initializeAcceptThread();
     }
 
@@ -41,7 +87,11 @@ public class MainAggregationServer {
             while (!isDown) {
                 try {
                     Socket clientSocket = socketServer.accept();
-                    if (clientSocket != null) {
+                    if (clientSocket == null) continue;
+                    // station routing reads the request first, which must not stall the accept loop
+                    if (this.executionMode == ExecutionMode.THREAD_PER_CONNECTION || this.strategy.usesStationId()) {
+                        this.connectionThreads.newThread(() -> handleClientSocket(clientSocket)).start();
+                    } else {
                         handleClientSocket(clientSocket);
                     }
                 } catch (IOException e) {
@@ -53,47 +103,66 @@ public class MainAggregationServer {
 
     /**
      * Retrieves an active AggregationServer from the list of managed servers.
-     * Implements a simple round-robin load balancing strategy.
      * @return An active AggregationServer, or null if no servers are available.
      */
     public AggregationServer getActiveServer() {
+        return this.getActiveServer(null);
+    }
+
+    /**
+     * Retrieves an active AggregationServer chosen by the load-balancing strategy.
+     * Health comes from the HealthChecker, so this performs no I/O.
+     * @param stationId The StationID of the request, or null if it has not been read.
+     * @return An active AggregationServer, or null if no servers are available.
+     */
+    public AggregationServer getActiveServer(String stationId) {
         if (this.servers.isEmpty()) {
             return null;
         }
-        AggregationServer nextServer;
-
-        nextServer = this.servers.get(serverIndex);
-        for (int i = 0; i < this.servers.size(); i++) {
-            if (nextServer.isUp()) {
-                return nextServer;
-            }
-            serverIndex = (serverIndex + 1) % this.servers.size();
-            nextServer = this.servers.get(serverIndex);
-        }
-
-        return null;
+        return this.strategy.select(this.servers, this.health::isHealthy, stationId);
     }
 
     /**
      * Handles a new client socket connection.
      * Delegates the connection to an active AggregationServer if available.
+     * A server that refuses the client is reported to the HealthChecker and the next one is tried.
      * @param client The newly connected client socket.
      */
     public void handleClientSocket(Socket client){
         try {
-            AggregationServer activeServer = getActiveServer();
-            
-            if (activeServer != null) {
-                int latestLamportAS = activeServer.accept(client);
-                this.globalLamport.adjust(latestLamportAS);
-            } else {
-                String res = "HTTP/1.1 503 Service Unavailable\r\n" +
-                                        "Lamport: -1\r\n" +
-                                        "\r\n";
-                this.socketServer.response(res, client);
+            HttpRequest request = null;
+            String stationId = null;
+            if (this.strategy.usesStationId()) {
+                // the client only sends its request after the greeting, so greet on behalf of the servers
+                this.socketServer.send("Lamport: " + this.globalLamport.getTime(), client);
+                request = this.socketServer.nextRequest(client);
+                if (request == null) {
+                    this.socketServer.closeConnection(client);
+                    return;
+                }
+                stationId = request.getHeader("StationID");
+            }
+            AggregationServer activeServer = getActiveServer(stationId);
+            for (int attempt = 1; activeServer != null; attempt++) {
+                try {
+                    activeServer.syncClock(this.globalLamport.getTime());
+                    int latestLamportAS = this.executionMode == ExecutionMode.THREAD_PER_CONNECTION
+                        ? activeServer.serve(client, request)
+                        : activeServer.accept(client, request);
+                    this.globalLamport.adjust(latestLamportAS);
+                    return;
+                } catch (IllegalStateException e) {
+                    this.health.markFailed(activeServer);
+                    activeServer = attempt < this.servers.size() ? getActiveServer(stationId) : null;
+                }
             }
+            String res = "HTTP/1.1 503 Service Unavailable\r\n" +
+                                    "Lamport: -1\r\n" +
+                                    "\r\n";
+            this.socketServer.response(res, client);
         } catch (Exception e) {
             e.printStackTrace();
+            this.socketServer.closeConnection(client);
         }
     }
 
@@ -104,6 +173,8 @@ public class MainAggregationServer {
     public void shutdown() {
         System.out.println("Shutting down main...");
         this.isDown = true;
+        this.health.stop();
+        System.out.println("Latency " + this.latency);
 
         for (AggregationServer server : this.servers) {
             server.stop();
@@ -114,19 +185,69 @@ public class MainAggregationServer {
         System.out.println("LoadBalancer and all managed AggregationServers have been shut down.");
     }
     public static void main(String[] args) {
-      SocketServer socket = new SocketServer();
+      ServerOptions options = new ServerOptions(args);
+      // --proxy=host:port,... relays clients to AggregationServer processes instead of running them in this JVM
+      if (options.has("proxy")) {
+        ProxyServer proxy = new ProxyServer(ProxyServer.parseBackends(options.get("proxy", "")),
+            options.getInt("proxy-pool", 0), options.getInt("health-ms", (int) HEALTH_INTERVAL));
+        try {
+          proxy.start(options.getInt("port", PORT));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        return;
+      }
+      // --nio serves every connection from selector event loops instead of blocking sockets
+      boolean useNio = options.has("nio");
+      // --exec=per-connection runs every accepted socket on its own virtual thread
+      ExecutionMode executionMode = ExecutionMode.fromOption(options.get("exec", "queue"));
+      SocketServer socket = useNio ? new NioSocketServer() : new SocketServer();
       List<AggregationServer> servers = new ArrayList<>();
+      // --shards=N partitions stations over N stores, each with its own lock and files
+      ShardedDatabase.configure(options.getInt("shards", 1), options.get("data-dir", DatabaseManagement.DEFAULT_DIRECTORY));
+      // --replicate gives every AggregationServer its own store and streams PUTs between them
+      boolean replicate = options.has("replicate");
       int port = PORT;
       for (int i = 1; i < 4; i++) {
         int serverPort = port + i;
-        SocketServer aggreSocket = new SocketServer();
-        AggregationServer aggreServer = new AggregationServer(aggreSocket);
+        SocketServer aggreSocket = useNio ? new NioSocketServer() : new SocketServer();
+        ShardedDatabase db = replicate
+            ? ShardedDatabase.open(options.getInt("shards", 1), options.get("data-dir", DatabaseManagement.DEFAULT_DIRECTORY) + File.separator + "replica-" + i)
+            : ShardedDatabase.initialize();
+        db.setDurability(WriteAheadLog.Durability.fromOption(options.get("durability", "per-request")), options.getInt("batch-ms", 5));
+        db.setHistoryLimits(options.getInt("history", 100), options.getInt("history-age-ms", 0));
+        if (options.has("columnar-history")) {
+            db.setColumnarHistory(true);
+        }
+        if (options.has("mapped-store")) {
+            db.setMappedStore(true);
+        }
+        if (options.has("checkpoints")) {
+            db.setCheckpoints(true);
+        }
+        AggregationServer aggreServer = new AggregationServer(aggreSocket, db);
+        if (replicate) {
+          // replicas receive PUTs on their own port
+          aggreServer.setStandalone(true);
+          for (int j = 1; j < 4; j++) {
+            if (j != i) aggreServer.addReplica(new InetSocketAddress("localhost", port + j));
+          }
+        }
+        aggreServer.configureWorkers(options.getInt("workers", 1), options.has("virtual-workers"));
+        aggreServer.setBlockingDispatch(options.has("blocking-dispatch"));
+        aggreServer.setExecutionMode(executionMode);
+        // --keep-alive-ms is how long a kept-alive client connection may stay idle (0 disables keep-alive)
+        aggreServer.setKeepAliveTimeout(options.getInt("keep-alive-ms", 15000));
         servers.add(aggreServer);
         new Thread(() -> {
           aggreServer.start(serverPort);
         }).start();
       }
-      MainAggregationServer mainServer = new MainAggregationServer(socket, servers);
+      // --health-ms sets how often backends are probed in the background
+      MainAggregationServer mainServer = new MainAggregationServer(socket, servers, options.getInt("health-ms", (int) HEALTH_INTERVAL));
+      mainServer.setExecutionMode(executionMode);
+      // --balance=failover|weighted|least-outstanding|station picks the load-balancing strategy
+      mainServer.setStrategy(LoadBalancingStrategy.fromOption(options.get("balance", "failover"), options.get("weights", null)));
       mainServer.start(port);
     }
 }
@@ -0,0 +1,222 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of the station histories, read through a memory mapping (data.dat).
+ * DatabaseManagement writes it when compacting with the mapped store enabled. On startup the file is mapped
+ * and only the record headers are scanned, so loading costs one index entry per record instead of parsing
+ * every reading; the readings stay in the mapped pages until a record is read.
+ *
+ * Layout, big-endian: MAGIC, VERSION, then for every record the station (short length + UTF-8),
+ * Lamport (int), receive time (long), source (short length, -1 for none, + UTF-8) and the reading as
+ * compact JSON (int length, -1 for none, + UTF-8). The records of a station are in Lamport order.
+ */
+public class MappedRecordStore {
+    static final int MAGIC = 0x57535444;
+    static final int VERSION = 1;
+    private static final int NONE = -1;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Receives the records found while opening a store, in file order.
+     */
+    public interface Visitor {
+        /**
+         * @param store The store being opened.
+         * @param station The station ID.
+         * @param lamport The record's Lamport clock.
+         * @param time The record's receive time.
+         * @param source The sender, or null.
+         * @param offset Where the reading is kept, for readReading.
+         */
+        void record(MappedRecordStore store, String station, int lamport, long time, String source, int offset);
+    }
+
+    private MappedRecordStore(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps a snapshot file and scans its record headers.
+     * @param path The snapshot file.
+     * @param visitor Called for every record, or null to skip the scan, e.g. for a file just written.
+     * @return The mapped store.
+     * @throws IOException If the file cannot be mapped, is not a snapshot or is truncated.
+     */
+    public static MappedRecordStore open(Path path, Visitor visitor) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + size + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        MappedRecordStore store = new MappedRecordStore(buffer);
+        ByteBuffer scan = buffer.duplicate();
+        try {
+            if (scan.getInt() != MAGIC) {
+                throw new IOException("Not a station snapshot: " + path);
+            }
+            int version = scan.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            }
+            while (visitor != null && scan.hasRemaining()) {
+                String station = readString(scan);
+                int lamport = scan.getInt();
+                long time = scan.getLong();
+                String source = readString(scan);
+                int offset = scan.position();
+                int length = scan.getInt();
+                if (length > 0) {
+                    scan.position(scan.position() + length);
+                }
+                visitor.record(store, station, lamport, time, source, offset);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated snapshot: " + path);
+        }
+        return store;
+    }
+
+    /**
+     * Decodes one reading from the mapped pages. Only this reading is copied onto the heap.
+     * @param offset The offset handed to the Visitor or returned by Writer.write.
+     * @return The reading, or null if the record has none.
+     */
+    public WeatherReading readReading(int offset) {
+        ByteBuffer body = this.body(offset);
+        if (body == null) {
+            return null;
+        }
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return WeatherReading.read(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param offset The offset of a record's reading.
+     * @return A view of the reading's JSON bytes in the mapping, or null if the record has none.
+     */
+    ByteBuffer body(int offset) {
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset);
+        int length = view.getInt();
+        if (length == NONE) {
+            return null;
+        }
+        view.limit(view.position() + length);
+        return view.slice();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == NONE) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8).intern();
+    }
+
+    /**
+     * Writes a new snapshot file. Readings already in a mapped store are copied straight from its pages.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(2 * (2 + Short.MAX_VALUE) + 16);
+        private long position;
+
+        /**
+         * @param path The file to write, replaced if it exists.
+         * @throws IOException If the file cannot be created.
+         */
+        public Writer(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            this.header.clear();
+            this.header.putInt(MAGIC).putInt(VERSION).flip();
+            this.writeFully(this.header, null);
+        }
+
+        /**
+         * Writes a record kept as an object.
+         * @param station The station ID.
+         * @param record The record.
+         * @return The offset of the record's reading in the new file.
+         * @throws IOException If writing fails.
+         */
+        public int write(String station, WeatherFormat record) throws IOException {
+            WeatherReading reading = record.getReading();
+            ByteBuffer body = reading != null
+                ? ByteBuffer.wrap(JsonHandling.serialize(reading, true).getBytes(StandardCharsets.UTF_8)) : null;
+            return this.write(station, record.getLamport(), record.getTime(), record.getSource(), body);
+        }
+
+        /**
+         * Writes a record whose reading is already encoded, e.g. a view returned by body.
+         * @param station The station ID.
+         * @param lamport The Lamport clock.
+         * @param time The receive time.
+         * @param source The sender, or null.
+         * @param body The reading's JSON bytes, or null for none.
+         * @return The offset of the record's reading in the new file.
+         * @throws IOException If writing fails or the file outgrows a single mapping.
+         */
+        public int write(String station, int lamport, long time, String source, ByteBuffer body) throws IOException {
+            this.header.clear();
+            putString(this.header, station);
+            this.header.putInt(lamport).putLong(time);
+            putString(this.header, source);
+            long offset = this.position + this.header.position();
+            this.header.putInt(body != null ? body.remaining() : NONE).flip();
+            this.writeFully(this.header, body != null ? body.duplicate() : null);
+            if (this.position > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + this.position + " bytes");
+            }
+            return (int) offset;
+        }
+
+        private void writeFully(ByteBuffer head, ByteBuffer body) throws IOException {
+            ByteBuffer[] buffers = body != null ? new ByteBuffer[] { head, body } : new ByteBuffer[] { head };
+            while (head.hasRemaining() || (body != null && body.hasRemaining())) {
+                this.position += this.channel.write(buffers);
+            }
+        }
+
+        private static void putString(ByteBuffer buffer, String value) throws IOException {
+            if (value == null) {
+                buffer.putShort((short) NONE);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IOException("Station or source ID too long: " + bytes.length + " bytes");
+            }
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        /**
+         * Forces the written snapshot to disk and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                this.channel.force(true);
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+
+/**
+ * StationHistory whose readings stay in a MappedRecordStore instead of on the heap.
+ * A slot keeps the Lamport, receive time, source and the offset of its reading in the mapped snapshot;
+ * the reading is decoded from the mapped pages each time the record is read.
+ * Records saved since the last snapshot have no offset yet and are kept as objects until the next
+ * compaction writes them out and rebinds the history to the new file.
+ * Enabled with DatabaseManagement.setMappedStore.
+ */
+public class MappedStationHistory extends StationHistory {
+    private static final int NONE = -1;
+
+    private final int[] lamports;
+    private final long[] times;
+    private final String[] sources;
+    private final int[] offsets;
+    private final WeatherFormat[] unsaved;
+    private MappedRecordStore store;
+    // offset of the record being added by addMapped
+    private int adding = NONE;
+    // counts every record stored or removed, so rebind can tell whether a snapshot is still current
+    private long modifications;
+
+    /**
+     * The records of a history at one moment, captured under the store's lock and written without it.
+     */
+    static final class Snapshot {
+        private final MappedStationHistory history;
+        private final long modifications;
+        private final MappedRecordStore store;
+        private final int[] lamports;
+        private final long[] times;
+        private final String[] sources;
+        private final int[] offsets;
+        private final WeatherFormat[] unsaved;
+
+        private Snapshot(MappedStationHistory history) {
+            int size = history.size();
+            this.history = history;
+            this.modifications = history.modifications;
+            this.store = history.store;
+            this.lamports = new int[size];
+            this.times = new long[size];
+            this.sources = new String[size];
+            this.offsets = new int[size];
+            this.unsaved = new WeatherFormat[size];
+            for (int i = 0; i < size; i++) {
+                int slot = history.slot(i);
+                this.lamports[i] = history.lamports[slot];
+                this.times[i] = history.times[slot];
+                this.sources[i] = history.sources[slot];
+                this.offsets[i] = history.offsets[slot];
+                this.unsaved[i] = history.unsaved[slot];
+            }
+        }
+
+        /**
+         * Writes the records to a new snapshot in Lamport order. Mapped readings are copied without decoding.
+         * @param writer The snapshot being written.
+         * @param station The station ID.
+         * @return The offsets of the written readings, for rebind.
+         * @throws IOException If writing fails.
+         */
+        int[] writeTo(MappedRecordStore.Writer writer, String station) throws IOException {
+            int[] written = new int[this.lamports.length];
+            for (int i = 0; i < written.length; i++) {
+                if (this.unsaved[i] != null) {
+                    written[i] = writer.write(station, this.unsaved[i]);
+                } else {
+                    written[i] = writer.write(station, this.lamports[i], this.times[i], this.sources[i],
+                        this.store.body(this.offsets[i]));
+                }
+            }
+            return written;
+        }
+
+        /**
+         * Points the history at the new snapshot, unless it changed since this one was captured.
+         * @param store The new snapshot.
+         * @param written The offsets returned by writeTo.
+         */
+        void rebind(MappedRecordStore store, int[] written) {
+            this.history.rebind(this, store, written);
+        }
+    }
+
+    /**
+     * @param capacity Maximum number of records kept.
+     * @param maxAgeMillis Maximum record age used by pruneExpired, 0 to keep records regardless of age.
+     */
+    public MappedStationHistory(int capacity, long maxAgeMillis) {
+        super(capacity, maxAgeMillis, false);
+        this.lamports = new int[this.capacity];
+        this.times = new long[this.capacity];
+        this.sources = new String[this.capacity];
+        this.offsets = new int[this.capacity];
+        this.unsaved = new WeatherFormat[this.capacity];
+    }
+
+    /**
+     * Adds a record found in a snapshot without decoding its reading.
+     * @param store The mapped snapshot; a history reads from one snapshot at a time.
+     * @param lamport The record's Lamport clock.
+     * @param time The record's receive time.
+     * @param source The sender, or null.
+     * @param offset The offset of the reading in the store.
+     */
+    synchronized void addMapped(MappedRecordStore store, int lamport, long time, String source, int offset) {
+        this.store = store;
+        this.adding = offset;
+        try {
+            this.add(WeatherFormat.of(lamport, source, null, time));
+        } finally {
+            this.adding = NONE;
+        }
+    }
+
+    /**
+     * Adds every record to another history, e.g. one with different limits, keeping mapped readings mapped.
+     * @param target The history to fill.
+     */
+    synchronized void copyTo(MappedStationHistory target) {
+        for (int i = 0; i < this.size(); i++) {
+            int slot = this.slot(i);
+            if (this.unsaved[slot] != null) {
+                target.add(this.unsaved[slot]);
+            } else {
+                target.addMapped(this.store, this.lamports[slot], this.times[slot], this.sources[slot], this.offsets[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return The records as they are now, to be written to a new snapshot.
+     */
+    synchronized Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Points every record at the snapshot written from a capture and drops the objects it took in.
+     * Ignored if the history changed in between, even if it still holds as many records, e.g. a full ring
+     * that evicted one; it then keeps reading from its current snapshot.
+     */
+    private synchronized void rebind(Snapshot captured, MappedRecordStore store, int[] written) {
+        if (captured.modifications != this.modifications) {
+            return;
+        }
+        this.store = store;
+        for (int i = 0; i < written.length; i++) {
+            int slot = this.slot(i);
+            this.offsets[slot] = written[i];
+            this.unsaved[slot] = null;
+        }
+    }
+
+    @Override
+    protected WeatherFormat load(int slot) {
+        if (this.unsaved[slot] != null) {
+            return this.unsaved[slot];
+        }
+        return WeatherFormat.of(this.lamports[slot], this.sources[slot], this.store.readReading(this.offsets[slot]),
+            this.times[slot]);
+    }
+
+    @Override
+    protected void store(int slot, WeatherFormat record) {
+        this.modifications++;
+        this.lamports[slot] = record.getLamport();
+        this.times[slot] = record.getTime();
+        this.sources[slot] = record.getSource();
+        this.offsets[slot] = this.adding;
+        this.unsaved[slot] = this.adding == NONE ? record : null;
+    }
+
+    @Override
+    protected void move(int from, int to) {
+        this.lamports[to] = this.lamports[from];
+        this.times[to] = this.times[from];
+        this.sources[to] = this.sources[from];
+        this.offsets[to] = this.offsets[from];
+        this.unsaved[to] = this.unsaved[from];
+    }
+
+    @Override
+    protected void clear(int slot) {
+        this.modifications++;
+        this.sources[slot] = null;
+        this.unsaved[slot] = null;
+    }
+
+    @Override
+    protected int lamportAt(int slot) {
+        return this.lamports[slot];
+    }
+
+    @Override
+    protected long timeAt(int slot) {
+        return this.times[slot];
+    }
+
+    @Override
+    protected String sourceAt(int slot) {
+        return this.sources[slot];
+    }
+}
@@ -17,6 +17,12 @@ public class MockSocketServer extends SocketServer {
         return lastRequest;
     }
 
+    @Override
+    public HttpRequest nextRequest(Socket clientSocket) {
+        // Instead of actually reading from a socket, parse the last set request
+        return lastRequest != null ? HttpRequestParser.parse(lastRequest) : null;
+    }
+
     @Override
     public void response(String response, Socket clientSocket) {
         // Instead of actually writing to a socket, just store the response
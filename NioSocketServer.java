@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Selector based implementation of SocketServer.
+ * One acceptor thread hands new connections to a few event loops that read requests without blocking,
+ * so idle or slow connections never hold a thread. Sockets returned by accept() are backed by a
+ * non-blocking channel and must be served through a NioSocketServer (send, request, response).
+ */
+public class NioSocketServer extends SocketServer {
+    private static final int DEFAULT_EVENT_LOOPS = 2;
+    private static final int READ_BUFFER_SIZE = 8192;
+    // how often an event loop with watched idle connections checks their keep-alive timeout
+    private static final long IDLE_CHECK_MILLIS = 250;
+    // Shared by every instance: MainAggregationServer accepts a socket and an AggregationServer serves it.
+    private static final Map<Socket, Connection> connections = new ConcurrentHashMap<>();
+
+    private final int eventLoopCount;
+    private final LinkedBlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private EventLoop[] eventLoops;
+    private volatile boolean running;
+    private int nextLoop;
+
+    public NioSocketServer() {
+        this(DEFAULT_EVENT_LOOPS);
+    }
+
+    public NioSocketServer(int eventLoopCount) {
+        this.eventLoopCount = Math.max(1, eventLoopCount);
+    }
+
+    /**
+     * Starts listening on the specified port and spawns the acceptor and event loop threads.
+     * @param port The port number to start the server on.
+     */
+    @Override
+    public void start(int port) {
+        this.close();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.bind(new InetSocketAddress(port));
+            this.serverChannel.configureBlocking(false);
+            this.acceptSelector = Selector.open();
+            this.serverChannel.register(this.acceptSelector, SelectionKey.OP_ACCEPT);
+
+            this.eventLoops = new EventLoop[this.eventLoopCount];
+            for (int i = 0; i < this.eventLoopCount; i++) {
+                this.eventLoops[i] = new EventLoop("nio-loop-" + port + "-" + i);
+            }
+            this.running = true;
+            Thread acceptor = new Thread(this::acceptLoop, "nio-accept-" + port);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops accepting connections and shuts the event loops down.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        try {
+            if (this.acceptSelector != null) this.acceptSelector.close();
+            if (this.serverChannel != null) this.serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (this.eventLoops != null) {
+            for (EventLoop loop : this.eventLoops) {
+                loop.shutdown();
+            }
+            this.eventLoops = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the next accepted connection, waiting at most one second like the blocking server.
+     * @return The accepted socket, or null if no connection arrived in time.
+     * @throws IOException If the calling thread was interrupted.
+     */
+    @Override
+    public Socket accept() throws IOException {
+        if (!this.running) {
+            throw new IllegalStateException("Server closed");
+        }
+        try {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                Socket socket = this.accepted.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                if (socket == null || socket.getChannel().isOpen()) {
+                    return socket;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Socket interrupted error", e);
+        }
+    }
+
+    /**
+     * Waits until the event loop has parsed a complete request for this socket.
+     * @param clientSocket The client's socket connection.
+     * @return The request as text, or null if the peer closed the connection first.
+     */
+    @Override
+    public String request(Socket clientSocket) {
+        if (!connections.containsKey(clientSocket)) {
+            return super.request(clientSocket);
+        }
+        HttpRequest request = this.nextRequest(clientSocket);
+        return request != null ? request.toString() : null;
+    }
+
+    /**
+     * Waits until the event loop has parsed a complete request for this socket.
+     * The request's body is a view of the bytes read from the channel, not a copy.
+     * @param clientSocket The client's socket connection.
+     * @return The parsed request, or null if the peer closed the connection first.
+     */
+    @Override
+    public HttpRequest nextRequest(Socket clientSocket) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            return super.nextRequest(clientSocket);
+        }
+        try {
+            return connection.nextRequest();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Takes a request already parsed behind the one just answered, without waiting for one.
+     * @param clientSocket The client's socket connection.
+     * @return The request, or null if none is queued.
+     */
+    @Override
+    public HttpRequest pollRequest(Socket clientSocket) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            return super.pollRequest(clientSocket);
+        }
+        return connection.pollRequest();
+    }
+
+    /**
+     * Waits for the next request on a kept-alive connection without holding an event loop.
+     * @param clientSocket The client's socket connection.
+     * @param idleMillis How long the connection may stay idle.
+     * @return The request, or null if the client closed the connection or stayed idle too long.
+     */
+    @Override
+    public HttpRequest awaitRequest(Socket clientSocket, long idleMillis) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            return super.awaitRequest(clientSocket, idleMillis);
+        }
+        try {
+            return connection.nextRequest(idleMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Calls back from the event loop once the next request on a kept-alive connection is complete,
+     * so idle connections hold no thread.
+     * @param clientSocket The client's socket connection.
+     * @param idleMillis How long the connection may stay idle.
+     * @param callback Receives the request, or null if the client closed the connection or stayed idle too long.
+     * @return false if the socket is not served by a NioSocketServer.
+     */
+    @Override
+    public boolean onNextRequest(Socket clientSocket, long idleMillis, Consumer<HttpRequest> callback) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            return super.onNextRequest(clientSocket, idleMillis, callback);
+        }
+        connection.watch(idleMillis, callback);
+        return true;
+    }
+
+    /**
+     * Writes a single line to the client without closing the connection.
+     * @param message The line to send.
+     * @param clientSocket The client's socket connection.
+     * @throws IOException If the write fails.
+     */
+    @Override
+    public void send(String message, Socket clientSocket) throws IOException {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            super.send(message, clientSocket);
+            return;
+        }
+        connection.write((message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the response and closes the connection, as the blocking server does.
+     * @param response The response string to send.
+     * @param clientSocket The client's socket connection.
+     */
+    @Override
+    public void response(String response, Socket clientSocket) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            super.response(response, clientSocket);
+            return;
+        }
+        try {
+            connection.write((response + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes the response, leaving the connection registered for the next request if keepAlive is set.
+     * @param response The response string to send.
+     * @param clientSocket The client's socket connection.
+     * @param keepAlive Whether the connection is kept alive.
+     * @throws IOException If a kept-alive response cannot be written.
+     */
+    @Override
+    public void respond(String response, Socket clientSocket, boolean keepAlive) throws IOException {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null || !keepAlive) {
+            super.respond(response, clientSocket, keepAlive);
+            return;
+        }
+        connection.write(response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Closes a connection and forgets its buffered state.
+     * @param clientSocket The client's socket connection.
+     */
+    @Override
+    public void closeConnection(Socket clientSocket) {
+        Connection connection = connections.get(clientSocket);
+        if (connection == null) {
+            super.closeConnection(clientSocket);
+            return;
+        }
+        connection.close();
+    }
+
+    /**
+     * Accepts new channels and assigns them to the event loops in turn.
+     */
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                this.acceptSelector.select();
+                Iterator<SelectionKey> keys = this.acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                    EventLoop[] loops = this.eventLoops;
+                    SocketChannel channel;
+                    while (loops != null && (channel = this.serverChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        EventLoop loop = loops[this.nextLoop];
+                        this.nextLoop = (this.nextLoop + 1) % loops.length;
+                        Connection connection = new Connection(channel, loop, this);
+                        connections.put(channel.socket(), connection);
+                        loop.register(connection);
+                        this.accepted.offer(channel.socket());
+                    }
+                }
+            } catch (ClosedSelectorException | ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (this.running) e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Single threaded selector loop serving the reads and pending writes of its connections.
+     */
+    private static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // connections waiting for their next request with a callback, touched on the loop thread only
+        private final Set<Connection> watched = new HashSet<>();
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            Thread thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void register(Connection connection) {
+            this.execute(() -> {
+                try {
+                    connection.key = connection.channel.register(this.selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            this.tasks.add(task);
+            this.selector.wakeup();
+        }
+
+        void shutdown() {
+            this.running = false;
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (this.running) {
+                    this.selector.select(this.watched.isEmpty() ? 0 : IDLE_CHECK_MILLIS);
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null) {
+                        task.run();
+                    }
+                    if (!this.watched.isEmpty()) {
+                        long now = System.currentTimeMillis();
+                        this.watched.removeIf(connection -> !connection.expireIfIdle(now));
+                    }
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                connection.close();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable(this.readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (CancelledKeyException e) {
+                            // closed by another thread meanwhile
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (this.running) e.printStackTrace();
+            } finally {
+                try {
+                    this.selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Per connection state: bytes received so far, complete requests and writes waiting for the socket.
+     */
+    private static class Connection {
+        private static final HttpRequest CLOSED = new HttpRequest("", "", Collections.emptyMap(), ByteBuffer.allocate(0));
+        private static final byte[] BAD_REQUEST = "HTTP/1.1 400 Bad Request\r\nLamport: -1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final NioSocketServer owner;
+        // received bytes in [0, position); requests handed out keep views of the ones before unparsed
+        private ByteBuffer inbound;
+        private int unparsed;
+        private boolean handedOut;
+        private final LinkedBlockingQueue<HttpRequest> requests = new LinkedBlockingQueue<>();
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private final Object writeLock = new Object();
+        private ByteBuffer pendingWrite;
+        private boolean delivered;
+        private SelectionKey key;
+        // set while a kept-alive connection waits for its next request, guarded by this
+        private Consumer<HttpRequest> waiter;
+        private long idleDeadline;
+
+        Connection(SocketChannel channel, EventLoop loop, NioSocketServer owner) {
+            this.channel = channel;
+            this.loop = loop;
+            this.owner = owner;
+        }
+
+        HttpRequest nextRequest() throws InterruptedException {
+            HttpRequest request = this.requests.take();
+            if (request == CLOSED) {
+                this.requests.offer(CLOSED);
+                return null;
+            }
+            return request;
+        }
+
+        HttpRequest pollRequest() {
+            HttpRequest request = this.requests.peek();
+            if (request == null || request == CLOSED) {
+                return null;
+            }
+            return this.requests.poll();
+        }
+
+        HttpRequest nextRequest(long timeoutMillis) throws InterruptedException {
+            HttpRequest request = this.requests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (request == null || request == CLOSED) {
+                this.requests.offer(CLOSED);
+                return null;
+            }
+            return request;
+        }
+
+        /**
+         * Hands the next request to the callback, right away if one is already queued, otherwise from the
+         * event loop once it is complete. The callback gets null when the connection closes or idles out.
+         */
+        void watch(long idleMillis, Consumer<HttpRequest> callback) {
+            HttpRequest request;
+            synchronized (this) {
+                request = this.requests.poll();
+                if (request == null) {
+                    this.waiter = callback;
+                    this.idleDeadline = System.currentTimeMillis() + idleMillis;
+                    this.loop.execute(() -> this.loop.watched.add(this));
+                    return;
+                }
+                if (request == CLOSED) {
+                    this.requests.offer(CLOSED);
+                }
+            }
+            callback.accept(request == CLOSED ? null : request);
+        }
+
+        /**
+         * Passes a complete request, or CLOSED, to the waiting callback or else queues it.
+         */
+        private void deliver(HttpRequest request) {
+            Consumer<HttpRequest> callback;
+            synchronized (this) {
+                callback = this.waiter;
+                this.waiter = null;
+                if (callback == null || request == CLOSED) {
+                    this.requests.offer(request);
+                }
+            }
+            if (callback != null) {
+                callback.accept(request == CLOSED ? null : request);
+            }
+        }
+
+        /**
+         * Runs on the event loop thread only.
+         * @return true while the connection is still waiting for its next request within the idle timeout.
+         */
+        boolean expireIfIdle(long now) {
+            Consumer<HttpRequest> callback;
+            synchronized (this) {
+                if (this.waiter == null) return false;
+                if (now < this.idleDeadline) return true;
+                callback = this.waiter;
+                this.waiter = null;
+            }
+            try {
+                callback.accept(null);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                this.close();
+            }
+            return false;
+        }
+
+        /**
+         * Reads whatever is available and queues every request that is now complete.
+         * Runs on the event loop thread only.
+         */
+        void onReadable(ByteBuffer buffer) {
+            try {
+                buffer.clear();
+                int read = this.channel.read(buffer);
+                if (read == -1) {
+                    this.onEndOfStream();
+                    return;
+                }
+                buffer.flip();
+                this.append(buffer);
+                this.parseRequests();
+            } catch (IOException e) {
+                this.close();
+            } catch (RuntimeException e) {
+                // a malformed or oversized request, or a failing callback, only costs this connection
+                System.out.println("Closing " + this.channel.socket() + ": " + e.getMessage());
+                this.reject();
+            }
+        }
+
+        /**
+         * Appends the received bytes. The buffer is never written below the bytes of requests already
+         * handed out, since their bodies are views of it: when it is full, or fully parsed after requests
+         * were handed out, the unparsed rest moves to a new buffer.
+         */
+        private void append(ByteBuffer data) {
+            if (this.inbound != null && this.unparsed == this.inbound.position()) {
+                if (this.handedOut) {
+                    this.inbound = null;
+                } else {
+                    this.inbound.clear();
+                    this.unparsed = 0;
+                }
+            }
+            if (this.inbound == null) {
+                this.inbound = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, data.remaining()));
+                this.unparsed = 0;
+                this.handedOut = false;
+            } else if (this.inbound.remaining() < data.remaining()) {
+                int pending = this.inbound.position() - this.unparsed;
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(this.inbound.capacity() * 2, pending + data.remaining()));
+                grown.put(this.inbound.flip().position(this.unparsed));
+                this.inbound = grown;
+                this.unparsed = 0;
+                this.handedOut = false;
+            }
+            this.inbound.put(data);
+        }
+
+        /**
+         * Takes every complete request from the received bytes with the connection's incremental parser,
+         * which resumes where it stopped on a request still arriving.
+         */
+        private void parseRequests() {
+            ByteBuffer view = this.inbound.duplicate().flip().position(this.unparsed);
+            HttpRequest request;
+            while ((request = this.parser.next(view)) != null) {
+                this.unparsed = view.position();
+                this.handedOut = true;
+                this.delivered = true;
+                this.deliver(request);
+            }
+            this.unparsed = view.position();
+        }
+
+        /**
+         * Answers a request that cannot be served with 400 as far as the socket takes it without waiting,
+         * then closes the connection. Runs on the event loop thread.
+         */
+        private void reject() {
+            synchronized (this.writeLock) {
+                try {
+                    if (this.pendingWrite == null) {
+                        this.channel.write(ByteBuffer.wrap(BAD_REQUEST));
+                    }
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            this.close();
+        }
+
+        /**
+         * Writes the data, handing any remainder to the event loop when the socket buffer is full.
+         * Returns once every byte has been written.
+         */
+        void write(byte[] data) throws IOException {
+            synchronized (this.writeLock) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                this.channel.write(buffer);
+                if (!buffer.hasRemaining()) return;
+
+                this.pendingWrite = buffer;
+                this.loop.execute(() -> {
+                    if (this.key != null && this.key.isValid()) {
+                        this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+                while (this.pendingWrite != null && this.channel.isOpen()) {
+                    try {
+                        this.writeLock.wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Write interrupted", e);
+                    }
+                }
+                if (this.pendingWrite != null) {
+                    throw new IOException("Connection closed before the response was written");
+                }
+            }
+        }
+
+        void onWritable() {
+            synchronized (this.writeLock) {
+                try {
+                    if (this.pendingWrite != null) {
+                        this.channel.write(this.pendingWrite);
+                        if (this.pendingWrite.hasRemaining()) return;
+                        this.pendingWrite = null;
+                    }
+                    this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+                } catch (IOException e) {
+                    this.close();
+                } finally {
+                    this.writeLock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * The peer stopped sending. Connections that already produced a request stay registered so the
+         * response can still be written; anything else (e.g. an isUp ping) is dropped right away.
+         */
+        private void onEndOfStream() {
+            if (!this.delivered) {
+                this.close();
+                return;
+            }
+            this.key.cancel();
+            this.deliver(CLOSED);
+        }
+
+        void close() {
+            connections.remove(this.channel.socket());
+            this.owner.accepted.remove(this.channel.socket());
+            this.deliver(CLOSED);
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioSocketServer_Test {
+    private static final int PORT = 5567;
+    private static final String DATA_DIR = "data";
+    private static final String[] JSON_FILES = {"data.json", "sender.json"};
+    private MainAggregationServer mainAggregationServer;
+    private List<AggregationServer> servers;
+
+    private void clearJsonFiles() {
+        for (String fileName : JSON_FILES) {
+            Path filePath = Paths.get(DATA_DIR, fileName);
+            try {
+                if (Files.exists(filePath)) {
+                    Files.write(filePath, new byte[0]);
+                }
+            } catch (IOException e) {
+                System.err.println("Error clearing " + fileName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        System.out.println("Running NioSocketServer_Test");
+        this.servers = new ArrayList<>();
+        for (int i = 1; i < 3; i++) {
+            int serverPort = PORT + i;
+            AggregationServer aggregationServer = new AggregationServer(new NioSocketServer());
+            this.servers.add(aggregationServer);
+            new Thread(() -> aggregationServer.start(serverPort)).start();
+        }
+        this.mainAggregationServer = new MainAggregationServer(new NioSocketServer(), this.servers);
+        this.mainAggregationServer.start(PORT);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.mainAggregationServer.shutdown();
+        this.servers.forEach(AggregationServer::clearData);
+        clearJsonFiles();
+    }
+
+    @Test
+    public void testPutAndGetThroughSelector() {
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", PORT);
+
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject res = client.sendRequest("localhost", PORT, "IDS60901");
+        assertNotNull(res);
+        assertEquals("IDS60901", res.get("id").getAsString());
+    }
+
+    @Test
+    public void testConcurrentClients() throws InterruptedException {
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data2_0.txt"));
+        contentServer.uploadData("localhost", PORT);
+
+        int clients = 20;
+        JsonObject[] results = new JsonObject[clients];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                GETClient client = new GETClient(new SocketServer());
+                results[index] = client.sendRequest("localhost", PORT, "IDS60902");
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        for (JsonObject res : results) {
+            assertNotNull(res);
+            assertEquals("IDS60902", res.get("id").getAsString());
+        }
+    }
+
+    @Test
+    public void testNonAsciiBodyIsFramedInBytes() throws IOException {
+        String name = "Ad\u00e9la\u00efde W\u00e9";
+        byte[] body = ("{\"id\":\"IDSX1\",\"name\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = new Socket("localhost", PORT)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(in.readLine().startsWith("Lamport"));
+            OutputStream out = socket.getOutputStream();
+            out.write(("PUT /data.json HTTP/1.1\r\nContent-Length: " + body.length + "\r\nLamportClock: 1\r\n"
+                + "Source: test\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+            out.flush();
+            String status = in.readLine();
+            assertTrue(status.startsWith("HTTP/1.1 201"), status);
+        }
+
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject res = client.sendRequest("localhost", PORT, "IDSX1");
+        assertNotNull(res);
+        assertEquals(name, res.get("name").getAsString(), "The whole body should arrive and come back intact");
+    }
+
+    @Test
+    public void testOversizedRequestOnlyClosesItsConnection() throws IOException {
+        // one per event loop, so a loop that died would fail the requests after
+        for (int i = 0; i < 2; i++) {
+            try (Socket socket = new Socket("localhost", PORT)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertTrue(in.readLine().startsWith("Lamport"));
+                socket.getOutputStream().write("PUT /data.json HTTP/1.1\r\nContent-Length: 3000000000\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8));
+                String status = in.readLine();
+                assertTrue(status.startsWith("HTTP/1.1 400"), status);
+            }
+        }
+
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", PORT);
+        GETClient client = new GETClient(new SocketServer());
+        for (int i = 0; i < 4; i++) {
+            JsonObject res = client.sendRequest("localhost", PORT, "IDS60901");
+            assertNotNull(res);
+            assertEquals("IDS60901", res.get("id").getAsString());
+        }
+    }
+
+    @Test
+    public void testKeptAliveRequestIsReportedByEventLoop() throws Exception {
+        NioSocketServer server = new NioSocketServer(1);
+        server.start(5624);
+        try (Socket socket = new Socket("localhost", 5624)) {
+            Socket accepted = server.accept();
+            assertNotNull(accepted);
+
+            CompletableFuture<HttpRequest> next = new CompletableFuture<>();
+            AtomicReference<String> thread = new AtomicReference<>();
+            assertTrue(server.onNextRequest(accepted, 5000, request -> {
+                thread.set(Thread.currentThread().getName());
+                next.complete(request);
+            }));
+            assertFalse(next.isDone(), "Nothing arrived yet");
+            socket.getOutputStream().write("GET /data.json HTTP/1.1\r\nStationID: IDS1\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            HttpRequest request = next.get(5, TimeUnit.SECONDS);
+            assertEquals("GET", request.getMethod());
+            assertEquals("IDS1", request.getHeader("StationID"));
+            assertTrue(thread.get().startsWith("nio-loop-5624"), thread.get());
+
+            CompletableFuture<HttpRequest> idle = new CompletableFuture<>();
+            server.onNextRequest(accepted, 200, idle::complete);
+            assertNull(idle.get(5, TimeUnit.SECONDS), "An idle connection is reported once its timeout passes");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPingIsDropped() throws IOException, InterruptedException {
+        new Socket("localhost", PORT + 1).close();
+        Thread.sleep(200);
+        assertTrue(this.servers.get(0).isUp());
+    }
+}
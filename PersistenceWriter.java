@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The single thread doing a store's disk I/O: appending mutations to the write-ahead log and compacting it.
+ * Request threads only change the in-memory data and enqueue the logged entries; the writer encodes and
+ * appends them, so a PUT waits for neither JSON encoding nor the disk unless its durability mode waits for
+ * the flush. Compaction runs on the same thread, so snapshot writes never interleave with log appends.
+ *
+ * The queue is bounded: when the disk falls behind, enqueueing blocks and pushes back on the request threads.
+ * Mutations carry the sequence number they were applied to memory with, and the writer logs them in that
+ * order even if their threads enqueued them the other way round. Mutations already taken in by a snapshot
+ * are not logged again.
+ */
+public class PersistenceWriter {
+    private static final int MAX_BATCH = 256;
+
+    private final WriteAheadLog wal;
+    private final BlockingQueue<Task> queue;
+    private final Thread thread;
+    // mutations that arrived ahead of an earlier sequence number
+    private final TreeMap<Long, Task> waiting = new TreeMap<>();
+    private long next = 1;
+    private volatile long covered;
+    private volatile boolean stopping;
+
+    /**
+     * Work run on the writer thread.
+     */
+    public interface Action {
+        void run() throws IOException;
+    }
+
+    private static class Task {
+        final long sequence;
+        final List<WriteAheadLog.Entry> entries;
+        final Action action;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Task(long sequence, List<WriteAheadLog.Entry> entries, Action action) {
+            this.sequence = sequence;
+            this.entries = entries;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Starts the writer thread.
+     * @param wal The log the writer appends to.
+     * @param capacity The maximum number of queued mutations and actions.
+     */
+    public PersistenceWriter(WriteAheadLog wal, int capacity) {
+        this.wal = wal;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = ServerThreads.factory("db-writer", false).newThread(this::run);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the log entries of one mutation, blocking while the queue is full.
+     * @param sequence The mutation's sequence number; every number from 1 on must be queued exactly once.
+     * @param entries The entries to log.
+     * @return A future completed once the entries are written according to the log's durability mode,
+     *         or once a snapshot took them in.
+     */
+    public CompletableFuture<Void> append(long sequence, List<WriteAheadLog.Entry> entries) {
+        return this.enqueue(new Task(sequence, entries, null));
+    }
+
+    /**
+     * Runs an action on the writer thread after every entry queued before it has been appended.
+     * Called from the writer thread itself, e.g. by a compaction, the action runs right away.
+     * @param action The action.
+     * @return A future completed when the action has run, exceptionally if it failed.
+     */
+    public CompletableFuture<Void> submit(Action action) {
+        if (Thread.currentThread() == this.thread) {
+            Task task = new Task(0, null, action);
+            this.runAction(task);
+            return task.done;
+        }
+        return this.enqueue(new Task(0, null, action));
+    }
+
+    /**
+     * Waits until every mutation queued so far is appended and forced to disk.
+     * Meant for tests and shutdown; requests wait on the futures of their own mutations.
+     */
+    public void flush() {
+        this.submit(this.wal::flush).join();
+    }
+
+    /**
+     * Marks every mutation up to a sequence number as part of a snapshot, so it is not logged any more.
+     * Called by the compaction running on the writer thread, after it captured the in-memory data.
+     * @param sequence The last sequence number applied to the captured data.
+     */
+    public void coveredUpTo(long sequence) {
+        this.covered = Math.max(this.covered, sequence);
+    }
+
+    /**
+     * @return The number of queued mutations and actions.
+     */
+    public int backlog() {
+        return this.queue.size();
+    }
+
+    /**
+     * Appends everything queued, then stops the writer thread. Work queued afterwards fails.
+     */
+    public void close() {
+        if (this.stopping) return;
+        this.submit(() -> this.stopping = true).join();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(Task task) {
+        if (this.stopping) {
+            task.done.completeExceptionally(new IllegalStateException("The store is closed"));
+            return task.done;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    this.queue.put(task);
+                    return task.done;
+                } catch (InterruptedException e) {
+                    // the mutation is already in memory, so it has to reach the log regardless
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Task> batch = new ArrayList<>();
+        while (!this.stopping) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.queue.drainTo(batch, MAX_BATCH - 1);
+            List<Task> logged = new ArrayList<>();
+            for (Task task : batch) {
+                if (task.action != null) {
+                    // an action sees every entry queued before it in the log
+                    this.appendAll(logged);
+                    logged = new ArrayList<>();
+                    this.runAction(task);
+                    continue;
+                }
+                this.waiting.put(task.sequence, task);
+                Task ready;
+                while ((ready = this.waiting.remove(this.next)) != null) {
+                    this.next++;
+                    if (ready.sequence <= this.covered) {
+                        ready.done.complete(null);
+                    } else {
+                        logged.add(ready);
+                    }
+                }
+            }
+            this.appendAll(logged);
+            batch.clear();
+        }
+        List<Task> left = new ArrayList<>(this.waiting.values());
+        this.queue.drainTo(left);
+        for (Task task : left) {
+            task.done.completeExceptionally(new IllegalStateException("The store is closed"));
+        }
+    }
+
+    /**
+     * Appends the entries of several mutations in one go, so they share the log's flush.
+     */
+    private void appendAll(List<Task> logged) {
+        if (logged.isEmpty()) return;
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        for (Task task : logged) {
+            entries.addAll(task.entries);
+        }
+        this.wal.appendAll(entries).whenComplete((ignored, error) -> {
+            for (Task task : logged) {
+                if (error != null) {
+                    task.done.completeExceptionally(error);
+                } else {
+                    task.done.complete(null);
+                }
+            }
+        });
+    }
+
+    private void runAction(Task task) {
+        try {
+            task.action.run();
+            task.done.complete(null);
+        } catch (Exception e) {
+            task.done.completeExceptionally(e);
+        }
+    }
+}
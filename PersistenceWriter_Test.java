@@ -0,0 +1,80 @@
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistenceWriter_Test {
+
+    @TempDir
+    Path dataDir;
+
+    private static List<WriteAheadLog.Entry> put(int lamport) {
+        return List.of(WriteAheadLog.Entry.put("IDS" + lamport, new WeatherFormat(lamport, "writer", null), lamport));
+    }
+
+    @Test
+    void testEntriesLoggedInSequenceOrder() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(this.dataDir.resolve("data.wal"));
+        PersistenceWriter writer = new PersistenceWriter(wal, 16);
+        try {
+            // 3 and 2 arrive before 1; 4 was already taken in by a snapshot
+            CompletableFuture<Void> third = writer.append(3, put(3));
+            CompletableFuture<Void> second = writer.append(2, put(2));
+            writer.flush();
+            assertFalse(third.isDone(), "Nothing is logged while sequence 1 is missing");
+            assertTrue(wal.readAll().isEmpty());
+
+            writer.coveredUpTo(4);
+            writer.append(1, put(1)).get(5, TimeUnit.SECONDS);
+            writer.append(4, put(4)).get(5, TimeUnit.SECONDS);
+            writer.append(5, put(5)).get(5, TimeUnit.SECONDS);
+            assertTrue(second.isDone() && third.isDone());
+            writer.flush();
+
+            List<WriteAheadLog.Entry> logged = wal.readAll();
+            assertEquals(List.of("IDS5"), logged.stream().map(e -> e.station).toList(),
+                "Covered mutations are not logged again");
+        } finally {
+            writer.close();
+            wal.close();
+        }
+        assertTrue(writer.append(6, put(6)).isCompletedExceptionally(), "A closed writer refuses work");
+    }
+
+    @Test
+    void testFullQueueBlocksUntilWriterCatchesUp() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(this.dataDir.resolve("data.wal"));
+        PersistenceWriter writer = new PersistenceWriter(wal, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            writer.submit(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            writer.append(1, put(1));
+
+            // the queue holds one task, so the next save has to wait for the busy writer
+            CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture.supplyAsync(() -> writer.append(2, put(2)));
+            Thread.sleep(200);
+            assertFalse(blocked.isDone(), "A full queue pushes back on the caller");
+            release.countDown();
+            blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            assertEquals(2, wal.readAll().size());
+        } finally {
+            release.countDown();
+            writer.close();
+            wal.close();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Layer-4 proxy in front of AggregationServer processes, used by MainAggregationServer with --proxy.
+ * Every client connection is relayed byte for byte to a healthy backend (greeting, request and response),
+ * so backends can run in other JVMs or on other hosts.
+ *
+ * Java cannot splice one socket into another, so the relay is channel to channel through pooled direct
+ * buffers: the bytes never enter the Java heap. Backend connections can be opened ahead of time; since a
+ * standalone backend gives each accepted connection to a worker right away, keep the pool smaller than the
+ * backend's worker count or run the backend with --exec=per-connection.
+ *
+ * The Lamport greeting of a pooled connection is the one the backend sent when the connection was opened,
+ * so a client may be greeted with a clock the backend has since moved past. That is accepted rather than
+ * re-greeted, which an L4 relay cannot do without a round trip: the greeting only needs to be a time the
+ * backend has reached, clients never move their own clock back, and the first response carries the
+ * backend's current clock.
+ */
+public class ProxyServer {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int GREETING_SIZE = 256;
+    private final List<InetSocketAddress> backends;
+    private final HealthChecker<InetSocketAddress> health;
+    private final Map<InetSocketAddress, LinkedBlockingDeque<SocketChannel>> idle = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextBackend = new AtomicInteger();
+    private final ThreadFactory relayThreads = ServerThreads.factory("proxy-relay", true);
+    private final int poolSize;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean isDown;
+
+    /**
+     * @param backends The AggregationServer addresses to balance over.
+     * @param poolSize Connections kept open ahead of time per backend (0 connects on demand).
+     * @param healthIntervalMillis The delay between background health probes.
+     */
+    public ProxyServer(List<InetSocketAddress> backends, int poolSize, long healthIntervalMillis) {
+        this.backends = backends;
+        this.poolSize = poolSize;
+        this.health = new HealthChecker<>(backends, ProxyServer::probe, healthIntervalMillis);
+        for (InetSocketAddress backend : backends) {
+            this.idle.put(backend, new LinkedBlockingDeque<>());
+        }
+    }
+
+    /**
+     * Parses the --proxy option.
+     * @param option Comma separated host:port pairs, e.g. "localhost:4000,10.0.0.2:4000".
+     * @return The backend addresses.
+     */
+    public static List<InetSocketAddress> parseBackends(String option) {
+        List<InetSocketAddress> backends = new ArrayList<>();
+        for (String backend : option.split(",")) {
+            String[] hostPort = backend.trim().split(":");
+            if (hostPort.length != 2) {
+                throw new IllegalArgumentException("Invalid backend, expected <host>:<port>: " + backend);
+            }
+            backends.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+        }
+        return backends;
+    }
+
+    /**
+     * Starts accepting clients on the given port and relaying them.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void start(int port) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.health.start();
+        for (InetSocketAddress backend : this.backends) {
+            this.refill(backend);
+        }
+        new Thread(this::acceptLoop, "proxy-accept-" + port).start();
+        System.out.println("Proxy started on: " + port + " for " + this.backends);
+    }
+
+    private void acceptLoop() {
+        while (!this.isDown) {
+            try {
+                SocketChannel client = this.serverChannel.accept();
+                this.relayThreads.newThread(() -> this.handle(client)).start();
+            } catch (IOException e) {
+                if (!this.isDown) e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Relays one client to a backend until both sides have finished.
+     * @param client The accepted client channel.
+     */
+    private void handle(SocketChannel client) {
+        ByteBuffer greeting = ByteBuffer.allocate(GREETING_SIZE);
+        SocketChannel backend = this.connectToBackend(greeting);
+        if (backend == null) {
+            String res = "HTTP/1.1 503 Service Unavailable\r\n" +
+                            "Lamport: -1\r\n" +
+                            "\r\n";
+            try {
+                client.write(ByteBuffer.wrap(res.getBytes()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.close(client);
+            return;
+        }
+        try {
+            greeting.flip();
+            while (greeting.hasRemaining()) {
+                client.write(greeting);
+            }
+        } catch (IOException e) {
+            this.close(client);
+            this.close(backend);
+            return;
+        }
+        Thread upstream = this.relayThreads.newThread(() -> this.pipe(client, backend));
+        upstream.start();
+        this.pipe(backend, client);
+        try {
+            upstream.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.close(client);
+        this.close(backend);
+    }
+
+    /**
+     * Takes a pooled connection or opens one, trying each healthy backend in turn.
+     * A backend that refuses the connection is reported to the HealthChecker.
+     * @param greeting Receives what a pooled connection has already sent, i.e. the backend's greeting,
+     *        which has to reach the client before the relay starts.
+     * @return A connected channel, or null if no backend is reachable.
+     */
+    private SocketChannel connectToBackend(ByteBuffer greeting) {
+        int size = this.backends.size();
+        for (int i = 0; i < size; i++) {
+            InetSocketAddress backend = this.backends.get(Math.floorMod(this.nextBackend.getAndIncrement(), size));
+            if (!this.health.isHealthy(backend)) {
+                continue;
+            }
+            SocketChannel pooled;
+            while ((pooled = this.idle.get(backend).poll()) != null) {
+                if (isStillOpen(pooled, greeting)) {
+                    this.refill(backend);
+                    return pooled;
+                }
+                greeting.clear();
+                this.close(pooled);
+            }
+            try {
+                return open(backend);
+            } catch (IOException e) {
+                this.health.markFailed(backend);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tops up the idle connections of a backend in the background.
+     */
+    private void refill(InetSocketAddress backend) {
+        if (this.poolSize <= 0) {
+            return;
+        }
+        this.relayThreads.newThread(() -> {
+            LinkedBlockingDeque<SocketChannel> pool = this.idle.get(backend);
+            while (!this.isDown && pool.size() < this.poolSize && this.health.isHealthy(backend)) {
+                try {
+                    pool.offer(open(backend));
+                } catch (IOException e) {
+                    this.health.markFailed(backend);
+                }
+            }
+        }).start();
+    }
+
+    private static SocketChannel open(InetSocketAddress backend) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(backend, CONNECT_TIMEOUT);
+            channel.socket().setTcpNoDelay(true);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether the backend closed a pooled connection while it was idle, e.g. on shutdown, with
+     * reads that do not wait.
+     * @param greeting Receives the bytes the backend sent on the connection so far.
+     * @return false if the connection has reached end of stream or failed.
+     */
+    private static boolean isStillOpen(SocketChannel channel, ByteBuffer greeting) {
+        if (!channel.isOpen() || !channel.isConnected()) {
+            return false;
+        }
+        try {
+            channel.configureBlocking(false);
+            int read;
+            do {
+                read = channel.read(greeting);
+            } while (read > 0 && greeting.hasRemaining());
+            channel.configureBlocking(true);
+            return read != -1;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean probe(InetSocketAddress backend) {
+        try (Socket ping = new Socket()) {
+            ping.connect(backend, CONNECT_TIMEOUT);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies bytes from one channel to the other until end of stream, then half-closes the destination
+     * so the other direction can still finish.
+     */
+    private void pipe(SocketChannel from, SocketChannel to) {
+        ByteBuffer buffer = this.buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            while (from.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+            }
+            to.shutdownOutput();
+        } catch (IOException e) {
+            // either side closed the connection; closing both ends stops the other direction
+            this.close(from);
+            this.close(to);
+        } finally {
+            buffer.clear();
+            this.buffers.offer(buffer);
+        }
+    }
+
+    private void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops accepting clients and closes pooled backend connections.
+     */
+    public void stop() {
+        this.isDown = true;
+        this.health.stop();
+        try {
+            if (this.serverChannel != null) {
+                this.serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (LinkedBlockingDeque<SocketChannel> pool : this.idle.values()) {
+            SocketChannel channel;
+            while ((channel = pool.poll()) != null) {
+                this.close(channel);
+            }
+        }
+        System.out.println("Proxy stopped");
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+
+class ProxyServer_Test {
+    private AggregationServer backend1, backend2;
+    private ProxyServer proxy;
+
+    private AggregationServer startBackend(int port) {
+        AggregationServer server = new AggregationServer(new SocketServer());
+        server.configureWorkers(2, false);
+        server.setStandalone(true);
+        new Thread(() -> server.start(port)).start();
+        return server;
+    }
+
+    @AfterEach
+    void shutDown() {
+        this.proxy.stop();
+        this.backend1.stop();
+        this.backend2.stop();
+        this.backend1.clearData();
+    }
+
+    @Test
+    void testRelaysToBackendProcesses() throws Exception {
+        this.backend1 = startBackend(5600);
+        this.backend2 = startBackend(5601);
+        Thread.sleep(500);
+        this.proxy = new ProxyServer(ProxyServer.parseBackends("localhost:5600,localhost:5601"), 1, 60000);
+        this.proxy.start(5602);
+
+        ContentServer contentServer = new ContentServer(new SocketServer());
+        assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+        contentServer.uploadData("localhost", 5602);
+
+        GETClient client = new GETClient(new SocketServer());
+        for (int i = 0; i < 4; i++) {
+            JsonObject res = client.sendRequest("localhost", 5602, "IDS60901");
+            assertNotNull(res);
+            assertEquals("IDS60901", res.get("id").getAsString());
+        }
+
+        this.backend1.stop();
+        for (int i = 0; i < 4; i++) {
+            JsonObject res = client.sendRequest("localhost", 5602, "IDS60901");
+            assertNotNull(res, "Requests should fail over to the remaining backend");
+        }
+        contentServer.shutdown();
+        client.shutdown();
+    }
+
+    @Test
+    void testPooledGreetingMayLagBehindBackendClock() throws Exception {
+        this.backend1 = startBackend(5603);
+        this.backend2 = new AggregationServer(new SocketServer());
+        Thread.sleep(500);
+        this.proxy = new ProxyServer(ProxyServer.parseBackends("localhost:5603"), 1, 60000);
+        this.proxy.start(5604);
+        Thread.sleep(300);
+        // traffic that bypasses the proxy moves the backend on after the pooled connection was greeted
+        this.backend1.syncClock(100);
+
+        try (Socket socket = new Socket("localhost", 5604)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            int greeting = Integer.parseInt(in.readLine().split(":")[1].trim());
+            assertTrue(greeting < 100, "The pooled greeting was captured before the clock moved");
+
+            String body = "{\"id\":\"IDSPOOL\"}";
+            OutputStream out = socket.getOutputStream();
+            out.write(("PUT /data.json HTTP/1.1\r\nContent-Length: " + body.length() + "\r\nLamportClock: " + (greeting + 1)
+                + "\r\nSource: pool\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(in.readLine().startsWith("HTTP/1.1 201"));
+            int responseClock = Integer.parseInt(in.readLine().split(":")[1].trim());
+            assertTrue(responseClock > 100, "The first response brings the client up to the backend's clock");
+        }
+
+        GETClient client = new GETClient(new SocketServer());
+        JsonObject res = client.sendRequest("localhost", 5604, "IDSPOOL");
+        assertNotNull(res, "The reading stored with the stale clock is still returned");
+        assertEquals("IDSPOOL", res.get("id").getAsString());
+        client.shutdown();
+    }
+
+    @Test
+    void testPooledConnectionClosedByBackendIsReplaced() throws Exception {
+        this.backend1 = new AggregationServer(new SocketServer());
+        this.backend2 = new AggregationServer(new SocketServer());
+        List<Socket> accepted = java.util.Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket backend = new ServerSocket(5626)) {
+            // greets every connection with its number and closes the first one, which the proxy has pooled
+            Thread acceptor = new Thread(() -> {
+                try {
+                    for (int connection = 1; ; connection++) {
+                        Socket socket = backend.accept();
+                        socket.getOutputStream().write(("Lamport: " + connection + "\n").getBytes(StandardCharsets.UTF_8));
+                        if (connection == 1) {
+                            socket.close();
+                        } else {
+                            accepted.add(socket);
+                        }
+                    }
+                } catch (Exception e) {
+                    // backend closed
+                }
+            });
+            acceptor.start();
+            this.proxy = new ProxyServer(ProxyServer.parseBackends("localhost:5626"), 1, 60000);
+            this.proxy.start(5627);
+            Thread.sleep(300);
+
+            try (Socket socket = new Socket("localhost", 5627)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("Lamport: 2", in.readLine(), "The closed pooled connection is replaced by a new one");
+            }
+        } finally {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void testParseBackends() {
+        this.backend1 = new AggregationServer(new SocketServer());
+        this.backend2 = new AggregationServer(new SocketServer());
+        this.proxy = new ProxyServer(List.of(), 0, 60000);
+
+        assertEquals(List.of(new InetSocketAddress("localhost", 4001), new InetSocketAddress("127.0.0.1", 4002)),
+            ProxyServer.parseBackends("localhost:4001, 127.0.0.1:4002"));
+        assertThrows(IllegalArgumentException.class, () -> ProxyServer.parseBackends("localhost"));
+    }
+}
@@ -0,0 +1,238 @@
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams records accepted by a primary AggregationServer to one replica, asynchronously.
+ * Records waiting at the same time are sent in Lamport order as ordinary PUTs carrying a
+ * "Replication" header, which the replica stores without replicating further.
+ * The queue is bounded: when a replica falls too far behind the oldest records are dropped and
+ * counted, so the lag cannot grow without limit and a stale replica is visible in the metrics.
+ * A record the replica answers with an error status, or keeps leaving unanswered, is dead-lettered:
+ * counted and skipped, so one record the replica cannot take does not hold up every later one.
+ */
+public class Replicator {
+    public static final String HEADER = "Replication";
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final long RETRY_DELAY = 500;
+    // attempts at a record the replica accepts connections for but never answers
+    private static final int MAX_ATTEMPTS = 10;
+    private static final int UNREACHABLE = -1;
+    private static final int NO_RESPONSE = 0;
+
+    private final InetSocketAddress replica;
+    private final LinkedBlockingQueue<Update> queue;
+    private final SocketServer socketServer = new SocketServer();
+    private final AtomicInteger highestQueued = new AtomicInteger();
+    private final AtomicInteger highestAcked = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    // queue time of the oldest record in the batch being sent, 0 between batches
+    private volatile long batchQueuedAt;
+    private volatile boolean isDown;
+    private Thread sender;
+
+    /**
+     * A record waiting to be replicated.
+     */
+    private static class Update {
+        private final String station;
+        private final WeatherFormat record;
+        private final long senderTime;
+        private final long queuedAt = System.currentTimeMillis();
+
+        private Update(String station, WeatherFormat record, long senderTime) {
+            this.station = station;
+            this.record = record;
+            this.senderTime = senderTime;
+        }
+    }
+
+    public Replicator(InetSocketAddress replica) {
+        this(replica, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param replica The replica's address.
+     * @param capacity The most records kept waiting before the oldest are dropped.
+     */
+    public Replicator(InetSocketAddress replica, int capacity) {
+        this.replica = replica;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts the background sender.
+     */
+    public synchronized void start() {
+        if (this.sender == null) {
+            this.sender = ServerThreads.factory("replicator-" + this.replica.getPort(), false).newThread(this::sendLoop);
+            this.sender.start();
+        }
+    }
+
+    /**
+     * Stops the sender; records still waiting are not sent.
+     */
+    public synchronized void stop() {
+        this.isDown = true;
+        if (this.sender != null) {
+            this.sender.interrupt();
+        }
+    }
+
+    /**
+     * Queues a record for the replica. Never blocks the PUT being acknowledged.
+     * @param station The station ID.
+     * @param record The stored record.
+     * @param senderTime When the primary last heard from the record's sender, used for expiry on the replica.
+     */
+    public void replicate(String station, WeatherFormat record, long senderTime) {
+        Update update = new Update(station, record, senderTime);
+        this.pending.incrementAndGet();
+        while (!this.queue.offer(update)) {
+            if (this.queue.poll() != null) {
+                this.pending.decrementAndGet();
+                this.dropped.incrementAndGet();
+            }
+        }
+        this.highestQueued.accumulateAndGet(record.getLamport(), Math::max);
+    }
+
+    private void sendLoop() {
+        List<Update> batch = new ArrayList<>();
+        try {
+            while (!this.isDown) {
+                Update first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch);
+                this.batchQueuedAt = first.queuedAt;
+                batch.sort(Comparator.comparingInt(u -> u.record.getLamport()));
+                for (Update update : batch) {
+                    this.deliver(update);
+                    this.highestAcked.accumulateAndGet(update.record.getLamport(), Math::max);
+                    this.pending.decrementAndGet();
+                }
+                this.batchQueuedAt = 0;
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stop() interrupts the sender
+        }
+    }
+
+    /**
+     * Sends one record until the replica acknowledges or rejects it.
+     * An unreachable replica is retried for as long as it takes, since the bounded queue already limits the lag.
+     */
+    private void deliver(Update update) throws InterruptedException {
+        int attempts = 0;
+        while (true) {
+            int status = this.send(update);
+            if (status == 200 || status == 201) {
+                return;
+            }
+            if (status >= 300 || (status == NO_RESPONSE && ++attempts >= MAX_ATTEMPTS)) {
+                this.deadLettered.incrementAndGet();
+                System.out.println("Replication of " + update.station + " at Lamport " + update.record.getLamport()
+                    + " to " + this.replica + " dead-lettered, " + (status == NO_RESPONSE ? "no response" : "status " + status));
+                return;
+            }
+            Thread.sleep(RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Sends one record as a replication PUT.
+     * @return The response's status code, NO_RESPONSE if the replica did not answer, or UNREACHABLE.
+     */
+    private int send(Update update) {
+        String res;
+        try {
+            String body = JsonHandling.serialize(update.record.getReading(), true);
+            this.socketServer.initializeSocketandGetLamport(this.replica.getHostString(), this.replica.getPort());
+            String putRequest = "PUT /data.json HTTP/1.1\r\n" +
+                            "Content-Type: " + JsonHandling.COMPACT_TYPE + "\r\n" +
+                            "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
+                            "LamportClock: " + update.record.getLamport() + "\r\n" +
+                            "Source: " + update.record.getSource() + "\r\n" +
+                            "StationID: " + update.station + "\r\n" +
+                            HEADER + ": " + update.senderTime + "\r\n" +
+                            "Connection: keep-alive\r\n" +
+                            "\r\n" +
+                            body;
+            res = this.socketServer.requestAndGetData(this.replica.getHostString(), this.replica.getPort(), putRequest, true);
+        } catch (RuntimeException e) {
+            System.out.println("Replication to " + this.replica + " failed, retrying: " + e.getMessage());
+            return UNREACHABLE;
+        }
+        if (res == null || !res.startsWith("HTTP/1.1 ")) {
+            return NO_RESPONSE;
+        }
+        try {
+            return Integer.parseInt(res.substring(9, Math.min(res.length(), 12)));
+        } catch (NumberFormatException e) {
+            return NO_RESPONSE;
+        }
+    }
+
+    /**
+     * @return Records queued or being sent.
+     */
+    public int getPending() {
+        return this.pending.get();
+    }
+
+    /**
+     * @return How many Lamport ticks the replica is behind the newest queued record.
+     */
+    public int getLagLamport() {
+        return Math.max(0, this.highestQueued.get() - this.highestAcked.get());
+    }
+
+    /**
+     * @return Milliseconds since the oldest record still waiting was queued, 0 when caught up.
+     */
+    public long getLagMillis() {
+        long oldest = this.batchQueuedAt;
+        if (oldest == 0) {
+            Update next = this.queue.peek();
+            oldest = next != null ? next.queuedAt : 0;
+        }
+        return oldest != 0 ? System.currentTimeMillis() - oldest : 0;
+    }
+
+    /**
+     * @return Records dropped because the replica fell more than the queue capacity behind.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return Records skipped because the replica rejected them or never answered.
+     */
+    public long getDeadLettered() {
+        return this.deadLettered.get();
+    }
+
+    public InetSocketAddress getReplica() {
+        return this.replica;
+    }
+
+    @Override
+    public String toString() {
+        return "Replica " + this.replica + ": pending " + this.getPending() + ", lag " + this.getLagLamport()
+            + " ticks / " + this.getLagMillis() + " ms, dropped " + this.getDropped() + ", dead-lettered " + this.getDeadLettered();
+    }
+}
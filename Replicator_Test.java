@@ -0,0 +1,109 @@
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+
+class Replicator_Test {
+
+    @TempDir
+    Path dataDir;
+
+    private AggregationServer startServer(ShardedDatabase db, int port) {
+        AggregationServer server = new AggregationServer(new SocketServer(), db);
+        server.setStandalone(true);
+        new Thread(() -> server.start(port)).start();
+        return server;
+    }
+
+    @Test
+    void testPrimaryStreamsPutsToReplica() throws InterruptedException {
+        ShardedDatabase primaryDb = ShardedDatabase.open(1, this.dataDir.resolve("primary").toString());
+        ShardedDatabase replicaDb = ShardedDatabase.open(1, this.dataDir.resolve("replica").toString());
+        AggregationServer primary = startServer(primaryDb, 5610);
+        AggregationServer replica = startServer(replicaDb, 5611);
+        Replicator replicator = primary.addReplica(new InetSocketAddress("localhost", 5611));
+        Thread.sleep(500);
+        try {
+            ContentServer contentServer = new ContentServer(new SocketServer());
+            assertTrue(contentServer.isLoadFileSuccess("data1_0.txt"));
+            contentServer.uploadData("localhost", 5610);
+            assertTrue(contentServer.isLoadFileSuccess("data1_1.txt"));
+            contentServer.uploadData("localhost", 5610);
+            contentServer.shutdown();
+
+            for (int i = 0; i < 50 && replicator.getPending() > 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, replicator.getPending());
+            assertEquals(0, replicator.getLagLamport());
+            assertEquals(0, replicator.getLagMillis());
+            assertEquals(0, replicator.getDropped());
+
+            WeatherFormat onPrimary = primaryDb.getLatest("IDS60901", Integer.MAX_VALUE);
+            WeatherFormat onReplica = replicaDb.getLatest("IDS60901", Integer.MAX_VALUE);
+            assertNotNull(onReplica);
+            assertEquals(onPrimary.getLamport(), onReplica.getLamport());
+            assertEquals(onPrimary.getData(), onReplica.getData());
+            assertEquals(2, replicaDb.shardFor("IDS60901").getWeatherData("IDS60901").size());
+            assertTrue(replica.getReplicators().isEmpty());
+
+            primary.stop();
+            GETClient client = new GETClient(new SocketServer());
+            JsonObject res = client.sendRequest("localhost", 5611, "IDS60901");
+            assertNotNull(res, "The replica should serve the data after the primary stopped");
+            assertEquals("IDS60901", res.get("id").getAsString());
+            client.shutdown();
+        } finally {
+            primary.stop();
+            replica.stop();
+            primaryDb.close();
+            replicaDb.close();
+        }
+    }
+
+    @Test
+    void testRejectedRecordDoesNotBlockLaterOnes() throws InterruptedException {
+        ShardedDatabase replicaDb = ShardedDatabase.open(1, this.dataDir.resolve("replica").toString());
+        AggregationServer replica = startServer(replicaDb, 5613);
+        Replicator replicator = new Replicator(new InetSocketAddress("localhost", 5613));
+        Thread.sleep(500);
+        try {
+            JsonObject reading = new JsonObject();
+            reading.addProperty("id", "IDSDEAD");
+            reading.addProperty("air_temp", 12.5);
+            // a record without a reading serializes to null, which the replica can never accept
+            replicator.replicate("IDSDEAD", new WeatherFormat(1, "source", null), System.currentTimeMillis());
+            replicator.replicate("IDSDEAD", new WeatherFormat(2, "source", reading), System.currentTimeMillis());
+            replicator.start();
+
+            for (int i = 0; i < 50 && replicator.getPending() > 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, replicator.getPending());
+            assertEquals(1, replicator.getDeadLettered());
+            WeatherFormat onReplica = replicaDb.getLatest("IDSDEAD", Integer.MAX_VALUE);
+            assertNotNull(onReplica, "The record after the rejected one should still be replicated");
+            assertEquals(2, onReplica.getLamport());
+        } finally {
+            replicator.stop();
+            replica.stop();
+            replicaDb.close();
+        }
+    }
+
+    @Test
+    void testLagIsBoundedWhenReplicaIsDown() {
+        Replicator replicator = new Replicator(new InetSocketAddress("localhost", 5612), 3);
+        for (int lamport = 1; lamport <= 5; lamport++) {
+            replicator.replicate("IDS1", new WeatherFormat(lamport, "source", new JsonObject()), 0);
+        }
+        assertEquals(3, replicator.getPending());
+        assertEquals(2, replicator.getDropped());
+        assertEquals(5, replicator.getLagLamport());
+        replicator.stop();
+    }
+}
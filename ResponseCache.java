@@ -0,0 +1,98 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Serialized GET response bodies, cached per station, Lamport clock of the returned record and wire format.
+ * DatabaseManagement invalidates a station whenever its history changes, so repeated GETs for hot
+ * stations skip JSON serialization entirely.
+ */
+public class ResponseCache {
+    private final Map<String, Map<Long, Body>> stations = new ConcurrentHashMap<>();
+    // counted before each removal, so a station first cached after its lookup can tell it was invalidated since
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * A serialized body with its Content-Length, counted in UTF-8 bytes.
+     */
+    public static class Body {
+        private final String json;
+        private final int length;
+
+        public Body(String json) {
+            this.json = json;
+            this.length = json.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        public String getJson() {
+            return this.json;
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+    }
+
+    /**
+     * Looks up the body of a station's record, serializing it on a miss.
+     * The station's map is fetched before the caller reads the record from the database: if the station
+     * is invalidated in between, the body lands in a detached map and is never served.
+     * A station without a map only gets one once a body is fetched, i.e. once a record was found, so
+     * unknown station IDs sent by clients do not grow the cache.
+     * @param stationId The station ID.
+     * @return A handle used to fetch bodies for this station.
+     */
+    public Station station(String stationId) {
+        return new Station(stationId, this.stations.get(stationId), this.invalidations.get());
+    }
+
+    /**
+     * Drops the cached bodies of a station.
+     * @param stationId The station ID, or null to drop everything.
+     */
+    public void invalidate(String stationId) {
+        this.invalidations.incrementAndGet();
+        if (stationId == null) {
+            this.stations.clear();
+        } else {
+            this.stations.remove(stationId);
+        }
+    }
+
+    /**
+     * Cached bodies of one station, as seen when the handle was taken.
+     */
+    public class Station {
+        private final String stationId;
+        private final Map<Long, Body> bodies;
+        private final long invalidationsSeen;
+
+        private Station(String stationId, Map<Long, Body> bodies, long invalidationsSeen) {
+            this.stationId = stationId;
+            this.bodies = bodies;
+            this.invalidationsSeen = invalidationsSeen;
+        }
+
+        /**
+         * @param lamport The Lamport clock of the record being returned.
+         * @param compact Whether the body is compact or pretty-printed JSON.
+         * @param serializer Produces the JSON on a miss.
+         * @return The cached or freshly serialized body.
+         */
+        public Body get(int lamport, boolean compact, Supplier<String> serializer) {
+            long key = ((long) lamport << 1) | (compact ? 1 : 0);
+            if (this.bodies != null) {
+                return this.bodies.computeIfAbsent(key, k -> new Body(serializer.get()));
+            }
+            Map<Long, Body> bodies = stations.computeIfAbsent(this.stationId, k -> new ConcurrentHashMap<>());
+            Body body = bodies.computeIfAbsent(key, k -> new Body(serializer.get()));
+            // the record may predate an invalidation since the lookup; a later one removes the map itself
+            if (invalidations.get() != this.invalidationsSeen) {
+                stations.remove(this.stationId, bodies);
+            }
+            return body;
+        }
+    }
+}
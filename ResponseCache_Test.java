@@ -0,0 +1,45 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCache_Test {
+
+    @Test
+    void testServesCachedBodyUntilInvalidated() {
+        ResponseCache cache = new ResponseCache();
+        AtomicInteger serialized = new AtomicInteger();
+
+        ResponseCache.Body first = cache.station("IDS1").get(3, false, () -> "{\"v\":" + serialized.incrementAndGet() + "}");
+        ResponseCache.Body second = cache.station("IDS1").get(3, false, () -> "{\"v\":" + serialized.incrementAndGet() + "}");
+        assertSame(first, second);
+        assertEquals(1, serialized.get());
+        assertEquals(first.getJson().length(), first.getLength());
+
+        cache.invalidate("IDS1");
+        ResponseCache.Body third = cache.station("IDS1").get(3, false, () -> "{\"v\":" + serialized.incrementAndGet() + "}");
+        assertEquals("{\"v\":2}", third.getJson());
+    }
+
+    @Test
+    void testInvalidationDuringLookupIsNotCached() {
+        ResponseCache cache = new ResponseCache();
+        ResponseCache.Station stale = cache.station("IDS1");
+        cache.invalidate(null);
+        stale.get(1, false, () -> "old");
+
+        assertEquals("new", cache.station("IDS1").get(1, false, () -> "new").getJson());
+    }
+
+    @Test
+    void testStationFirstCachedAfterInvalidationIsDropped() {
+        ResponseCache cache = new ResponseCache();
+        // nothing is cached for IDS1 yet, so the lookup holds no map the invalidation could detach
+        ResponseCache.Station stale = cache.station("IDS1");
+        cache.invalidate("IDS1");
+        assertEquals("old", stale.get(1, false, () -> "old").getJson());
+
+        assertEquals("new", cache.station("IDS1").get(1, false, () -> "new").getJson());
+        assertEquals("new", cache.station("IDS1").get(1, false, () -> "newer").getJson());
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options shared by the server mains.
+ * Accepts flags ("--nio") and key/value pairs ("--workers=4").
+ */
+public class ServerOptions {
+    private final Set<String> flags = new HashSet<>();
+    private final Map<String, String> values = new HashMap<>();
+
+    public ServerOptions(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            String option = arg.substring(2);
+            int split = option.indexOf('=');
+            if (split == -1) {
+                this.flags.add(option);
+            } else {
+                this.values.put(option.substring(0, split), option.substring(split + 1));
+            }
+        }
+    }
+
+    /**
+     * Checks whether a flag was passed.
+     * @param name The flag name without the leading dashes.
+     * @return true if the flag is present.
+     */
+    public boolean has(String name) {
+        return this.flags.contains(name) || this.values.containsKey(name);
+    }
+
+    /**
+     * Retrieves the value of a key/value option.
+     * @param name The option name without the leading dashes.
+     * @param fallback The value used when the option is missing.
+     * @return The option value.
+     */
+    public String get(String name, String fallback) {
+        return this.values.getOrDefault(name, fallback);
+    }
+
+    /**
+     * Retrieves a numeric option.
+     * @param name The option name without the leading dashes.
+     * @param fallback The value used when the option is missing or invalid.
+     * @return The option value.
+     */
+    public int getInt(String name, int fallback) {
+        try {
+            return Integer.parseInt(this.values.get(name));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
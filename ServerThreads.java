@@ -0,0 +1,68 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads used by the server executors.
+ * Virtual threads are only available from Java 21, so they are looked up reflectively and the
+ * factories fall back to daemon platform threads on older runtimes.
+ */
+public class ServerThreads {
+    private static final Object VIRTUAL_BUILDER = lookupVirtualBuilder();
+
+    private ServerThreads() {}
+
+    /**
+     * Checks whether the running JVM can create virtual threads.
+     * @return true if virtual threads are supported.
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    /**
+     * Creates a thread factory naming threads "prefix-N".
+     * @param prefix The thread name prefix.
+     * @param virtual Whether to create virtual threads when the runtime supports them.
+     * @return The thread factory.
+     */
+    public static ThreadFactory factory(String prefix, boolean virtual) {
+        if (virtual && isVirtualSupported()) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object named = builderType.getMethod("name", String.class, long.class).invoke(VIRTUAL_BUILDER, prefix + "-", 0L);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(named);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads unavailable, using platform threads: " + e.getMessage());
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a fixed size pool of worker threads.
+     * @param size The number of threads.
+     * @param prefix The thread name prefix.
+     * @param virtual Whether to use virtual threads when supported.
+     * @return The executor.
+     */
+    public static ExecutorService newPool(int size, String prefix, boolean virtual) {
+        return Executors.newFixedThreadPool(size, factory(prefix, virtual));
+    }
+
+    private static Object lookupVirtualBuilder() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            return ofVirtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
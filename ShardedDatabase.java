@@ -0,0 +1,263 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Partitions stations across several DatabaseManagement stores by hash of the station ID.
+ * Each shard has its own maps, lock, log and files under "data/shard-N", so requests for stations
+ * in different shards never contend. With a single shard the default store in "data" is used,
+ * which keeps the original layout.
+ */
+public class ShardedDatabase {
+    private static int defaultShardCount = 1;
+    private static String defaultDirectory = DatabaseManagement.DEFAULT_DIRECTORY;
+    private static ShardedDatabase shared;
+
+    private final DatabaseManagement[] shards;
+    private final ResponseCache responseCache = new ResponseCache();
+    private volatile String latestStationID;
+
+    /**
+     * @param shards The stores to partition over; a station always maps to the same index.
+     */
+    public ShardedDatabase(DatabaseManagement... shards) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards;
+        for (DatabaseManagement shard : shards) {
+            shard.addChangeListener(this.responseCache::invalidate);
+        }
+    }
+
+    /**
+     * Opens shardCount stores in "directory/shard-N", or a single store in the directory itself.
+     * The default "data" directory with one shard reuses DatabaseManagement.initialize().
+     * @param shardCount The number of shards.
+     * @param directory The data directory.
+     * @return The sharded database.
+     */
+    public static ShardedDatabase open(int shardCount, String directory) {
+        if (shardCount <= 1) {
+            return new ShardedDatabase(DatabaseManagement.DEFAULT_DIRECTORY.equals(directory)
+                ? DatabaseManagement.initialize()
+                : new DatabaseManagement(directory));
+        }
+        DatabaseManagement[] shards = new DatabaseManagement[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DatabaseManagement(directory + File.separator + "shard-" + i);
+        }
+        return new ShardedDatabase(shards);
+    }
+
+    /**
+     * Sets up the shared database. Must be called before the first initialize().
+     * @param shardCount The number of shards.
+     * @param directory The data directory.
+     */
+    public static synchronized void configure(int shardCount, String directory) {
+        if (shared != null) {
+            throw new IllegalStateException("Shared database already opened");
+        }
+        defaultShardCount = shardCount;
+        defaultDirectory = directory;
+    }
+
+    /**
+     * The database shared by every AggregationServer in this process unless one is passed explicitly.
+     * @return The shared instance.
+     */
+    public static synchronized ShardedDatabase initialize() {
+        if (shared == null) {
+            shared = open(defaultShardCount, defaultDirectory);
+        }
+        return shared;
+    }
+
+    /**
+     * Closes every shard; only for databases opened with open(), not the shared one.
+     */
+    public void close() {
+        for (DatabaseManagement shard : this.shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * @param station The station ID.
+     * @return The store owning the station.
+     */
+    public DatabaseManagement shardFor(String station) {
+        return this.shards[Math.floorMod(station.hashCode(), this.shards.length)];
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Serialized GET bodies, invalidated by every shard.
+     * @return The response cache of this database.
+     */
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Saves a record in the station's shard.
+     * @param station The station ID.
+     * @param data The record.
+     * @return A future completed once the record is durable.
+     */
+    public CompletableFuture<Void> saveData(String station, WeatherFormat data) {
+        CompletableFuture<Void> durable = this.shardFor(station).saveData(station, data);
+        this.latestStationID = station;
+        return durable;
+    }
+
+    /**
+     * Saves several records with one log flush per shard they fall in.
+     * @param records Station IDs with their new records, applied in order.
+     * @return A future completed once every record is durable.
+     */
+    public CompletableFuture<Void> saveAll(List<Map.Entry<String, WeatherFormat>> records) {
+        if (records.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<DatabaseManagement, List<Map.Entry<String, WeatherFormat>>> byShard = new LinkedHashMap<>();
+        for (Map.Entry<String, WeatherFormat> record : records) {
+            byShard.computeIfAbsent(this.shardFor(record.getKey()), shard -> new ArrayList<>()).add(record);
+        }
+        List<CompletableFuture<Void>> durable = new ArrayList<>();
+        byShard.forEach((shard, shardRecords) -> durable.add(shard.saveAll(shardRecords)));
+        this.latestStationID = records.get(records.size() - 1).getKey();
+        return CompletableFuture.allOf(durable.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Records that a sender wrote to a station. Each shard expires the sender's records on its own, so
+     * every shard already holding the sender is refreshed too: a sender that is still writing to one
+     * shard must not expire in another.
+     * @param station The station ID.
+     * @param source The sender.
+     * @param time The time of the write in milliseconds.
+     */
+    public void saveTime(String station, String source, long time) {
+        DatabaseManagement owner = this.shardFor(station);
+        owner.saveTime(source, time);
+        for (DatabaseManagement shard : this.shards) {
+            if (shard != owner && shard.getSenderTimestamp(source) != null) {
+                shard.saveTime(source, time);
+            }
+        }
+    }
+
+    /**
+     * @param source The sender.
+     * @return The last time the sender wrote to any shard, or null.
+     */
+    public Long getSenderTimestamp(String source) {
+        Long latest = null;
+        for (DatabaseManagement shard : this.shards) {
+            Long time = shard.getSenderTimestamp(source);
+            if (time != null && (latest == null || time > latest)) {
+                latest = time;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @param station The station ID.
+     * @param lamport The requested Lamport clock.
+     * @return The latest record of the station not after lamport, or null.
+     */
+    public WeatherFormat getLatest(String station, int lamport) {
+        return this.shardFor(station).getLatest(station, lamport);
+    }
+
+    /**
+     * @return Every station with data in any shard, in ID order.
+     */
+    public SortedSet<String> getStationIDs() {
+        SortedSet<String> stations = new TreeSet<>();
+        for (DatabaseManagement shard : this.shards) {
+            stations.addAll(shard.getWeatherData().keySet());
+        }
+        return stations;
+    }
+
+    /**
+     * @return The most recently written station across all shards.
+     */
+    public String getStationID() {
+        String latest = this.latestStationID;
+        return latest != null ? latest : this.shards[0].getStationID();
+    }
+
+    /**
+     * @return The highest Lamport clock stored in any shard.
+     */
+    public int getHighestLamportClock() {
+        int highest = 0;
+        for (DatabaseManagement shard : this.shards) {
+            highest = Math.max(highest, shard.getHighestLamportClock());
+        }
+        return highest;
+    }
+
+    public void addChangeListener(Consumer<String> listener) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.addChangeListener(listener);
+        }
+    }
+
+    public void setDurability(WriteAheadLog.Durability durability, long batchMillis) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.setDurability(durability, batchMillis);
+        }
+    }
+
+    public void setColumnarHistory(boolean columnar) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.setColumnarHistory(columnar);
+        }
+    }
+
+    public void setMappedStore(boolean mapped) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.setMappedStore(mapped);
+        }
+    }
+
+    public void flush() {
+        for (DatabaseManagement shard : this.shards) {
+            shard.flush();
+        }
+    }
+
+    public void setCheckpoints(boolean enabled) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.setCheckpoints(enabled);
+        }
+    }
+
+    public void setHistoryLimits(int capacity, long maxAgeMillis) {
+        for (DatabaseManagement shard : this.shards) {
+            shard.setHistoryLimits(capacity, maxAgeMillis);
+        }
+    }
+
+    public void clear() {
+        for (DatabaseManagement shard : this.shards) {
+            shard.clear();
+        }
+        this.latestStationID = null;
+    }
+}
@@ -0,0 +1,123 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedDatabase_Test {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void testStationsArePartitionedAcrossShards() {
+        ShardedDatabase db = ShardedDatabase.open(4, this.dataDir.toString());
+        try {
+            Set<DatabaseManagement> used = new HashSet<>();
+            for (int i = 0; i < 40; i++) {
+                String station = "IDS" + i;
+                db.saveTime(station, "source-" + i, System.currentTimeMillis());
+                db.saveData(station, new WeatherFormat(i + 1, "source-" + i, null)).join();
+                assertSame(db.shardFor(station), db.shardFor(station));
+                used.add(db.shardFor(station));
+
+                assertNotNull(db.shardFor(station).getWeatherData(station));
+                for (int other = 0; other < 4; other++) {
+                    DatabaseManagement shard = db.shardFor("IDS" + other);
+                    if (shard != db.shardFor(station)) {
+                        assertNull(shard.getWeatherData(station), "A station must live in one shard only");
+                    }
+                }
+            }
+            assertEquals(4, used.size());
+            assertEquals(40, db.getHighestLamportClock());
+            assertEquals("IDS39", db.getStationID());
+            assertEquals(7, db.getLatest("IDS6", 100).getLamport());
+            assertNotNull(db.getSenderTimestamp("source-6"));
+            for (int i = 0; i < 4; i++) {
+                assertTrue(Files.isDirectory(this.dataDir.resolve("shard-" + i)));
+            }
+        } finally {
+            db.close();
+        }
+
+        ShardedDatabase reopened = ShardedDatabase.open(4, this.dataDir.toString());
+        try {
+            assertEquals(7, reopened.getLatest("IDS6", 100).getLamport(), "Each shard should reload its own files");
+            reopened.clear();
+            assertNull(reopened.getLatest("IDS6", 100));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testSaveAllSpansShards() {
+        ShardedDatabase db = ShardedDatabase.open(3, this.dataDir.toString());
+        try {
+            List<Map.Entry<String, WeatherFormat>> records = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                records.add(Map.entry("IDS" + (i % 6), new WeatherFormat(i + 1, "batch", null)));
+            }
+            db.saveAll(records).join();
+            assertEquals(12, db.getHighestLamportClock());
+            assertEquals("IDS5", db.getStationID());
+            assertEquals(9, db.getLatest("IDS2", 100).getLamport(), "Later records of a station win");
+            assertEquals(3, db.getLatest("IDS2", 8).getLamport());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    void testSenderIsRefreshedInEveryShard() {
+        ShardedDatabase db = ShardedDatabase.open(2, this.dataDir.toString());
+        try {
+            String first = "IDS0";
+            String second = "IDS1";
+            for (int i = 2; db.shardFor(first) == db.shardFor(second); i++) {
+                second = "IDS" + i;
+            }
+            long now = System.currentTimeMillis();
+            db.saveTime(first, "roaming", now);
+            db.saveData(first, new WeatherFormat(1, "roaming", null)).join();
+            assertNull(db.shardFor(second).getSenderTimestamp("roaming"));
+
+            db.saveTime(second, "roaming", now + 1000);
+            assertEquals(now + 1000, db.shardFor(first).getSenderTimestamp("roaming"),
+                "Writing to one shard keeps the sender alive in the other");
+            assertEquals(now + 1000, db.getSenderTimestamp("roaming"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    void testAggregationServerOnOwnShards() {
+        ShardedDatabase db = ShardedDatabase.open(2, this.dataDir.toString());
+        AggregationServer server = new AggregationServer(new MockSocketServer(), db);
+        try {
+            String putRequest = "PUT /data.json HTTP/1.1\r\n" +
+                                "Content-Length: 40\r\n" +
+                                "LamportClock: 1\r\n" +
+                                "Source: ShardSource\r\n" +
+                                "\r\n" +
+                                "{\"id\":\"IDS70001\",\"name\":\"Sharded\"}";
+            assertTrue(server.normalizeReq(putRequest).contains("201"));
+            assertNotNull(db.shardFor("IDS70001").getWeatherData("IDS70001"));
+            assertNull(DatabaseManagement.initialize().getWeatherData("IDS70001"), "The default store must not see it");
+
+            String response = server.normalizeReq("GET /data.json HTTP/1.1\r\nStationID: IDS70001\r\nLamportClock: 2\r\n\r\n");
+            assertTrue(response.contains("Sharded"), response);
+        } finally {
+            server.stop();
+            db.close();
+        }
+    }
+}
@@ -3,12 +3,27 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class SocketServer {
+    // One reader per accepted socket, kept across requests on a keep-alive connection so read-ahead is not lost.
+    // Shared by every instance: MainAggregationServer may read a request and an AggregationServer the next one.
+    private static final Map<Socket, Inbound> readers = new ConcurrentHashMap<>();
     private ServerSocket server;
     private Socket client;
     private PrintWriter outLog;
-    private BufferedReader inLog;
+    private InputStream inLog;
+    private String clientHost;
+    private int clientPort;
+    private int lastLamport;
+    private boolean reusable;
+    private boolean reusedConnection;
 
     /**
      * Starts the server on the specified port.
@@ -25,7 +40,7 @@ public class SocketServer {
     }
 
     /**
-     * Closes the server socket.
+     * Closes the server socket and any kept-alive client connection.
      * Called during shutdown procedures in various classes to ensure proper resource cleanup.
      */
     public void close() {
@@ -34,6 +49,34 @@ public class SocketServer {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        this.closeClient();
+    }
+
+    private void closeClient() {
+        this.reusable = false;
+        try {
+            if (this.client != null) this.client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.client = null;
+    }
+
+    /**
+     * Checks the Connection header of a request or response.
+     * @param message The raw request or response.
+     * @return true if it asks to keep the connection open.
+     */
+    public static boolean isKeepAlive(String message) {
+        for (String line : message.split("\r\n")) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (line.regionMatches(true, 0, "Connection:", 0, 11)) {
+                return line.substring(11).trim().equalsIgnoreCase("keep-alive");
+            }
+        }
+        return false;
     }
 
 
@@ -69,20 +112,70 @@ public class SocketServer {
     /**
      * Initializes a client socket connection and retrieves the Lamport clock value from the server.
      * Used by ContentServer and Client to establish a connection with the AggregationServer.
+     * A connection kept alive by the previous request to the same server is reused; the server only
+     * greets new connections, so the Lamport clock of its last response is returned instead.
+     * A kept-alive connection the server has already closed is replaced before anything is sent on it.
      * @param serverName The server's hostname.
      * @param portNumber The server's port number.
      * @return The Lamport clock value received from the server.
      */
     public int initializeSocketandGetLamport(String serverName, int portNumber) {
-        this.close();
+        if (this.reusable && this.client != null && !this.client.isClosed()
+                && serverName.equals(this.clientHost) && portNumber == this.clientPort && !this.isClosedByServer()) {
+            this.reusedConnection = true;
+            return this.lastLamport;
+        }
+        this.reusedConnection = false;
+        return this.connect(serverName, portNumber);
+    }
+
+    /**
+     * Checks whether the server closed the kept-alive connection while it was idle, e.g. after its
+     * keep-alive timeout, without waiting more than a millisecond.
+     * @return true if the connection has reached end of stream or failed.
+     */
+    private boolean isClosedByServer() {
+        try {
+            this.client.setSoTimeout(1);
+            this.inLog.mark(1);
+            if (this.inLog.read() == -1) {
+                return true;
+            }
+            this.inLog.reset();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            try {
+                if (!this.client.isClosed()) this.client.setSoTimeout(0);
+            } catch (IOException e) {
+                // closed concurrently
+            }
+        }
+    }
+
+    /**
+     * A request may only be sent again if applying it twice is harmless; a PUT the server received
+     * before the connection broke would store its reading twice.
+     * @param request The raw request.
+     * @return true for GET requests.
+     */
+    private static boolean isResendable(String request) {
+        return request.startsWith("GET ");
+    }
+
+    private int connect(String serverName, int portNumber) {
+        this.closeClient();
         try {
             this.client = new Socket(serverName, portNumber);
             
-            this.outLog = new PrintWriter(client.getOutputStream(), true);
+            this.outLog = writer(client, true);
             
-            this.inLog = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            this.inLog = new BufferedInputStream(client.getInputStream());
             
-            String res = this.inLog.readLine();
+            String res = readLine(this.inLog);
             if (res == null) {
                 throw new IOException("Server closed the connection unexpectedly.");
             }
@@ -95,13 +188,16 @@ public class SocketServer {
                 case "HTTP/1.1 503":
                     throw new IOException("Received 503 Service Unavailable from the server.");
                 case "Lamport":
-                    return Integer.parseInt(responseValue);
+                    this.clientHost = serverName;
+                    this.clientPort = portNumber;
+                    this.lastLamport = Integer.parseInt(responseValue);
+                    return this.lastLamport;
                 default:
                     throw new IOException("Cannot get lamport, error: " + res);
             }
         } catch (IOException | RuntimeException e) {
             // e.printStackTrace();
-            this.close(); 
+            this.closeClient();
             throw new RuntimeException("Error socket", e);
         }
     }
@@ -109,6 +205,10 @@ public class SocketServer {
     /**
      * Sends a request to the server and returns the response.
      * Used by ContentServer for PUT requests and Client for GET requests.
+     * The connection stays open for the next request when both the request and the response carry
+     * "Connection: keep-alive"; if a reused connection turns out to have been closed by the server,
+     * a GET is sent once more on a fresh connection. Other requests are not resent, since the server
+     * may have applied them before the connection broke; null is returned instead.
      * @param serverName The server's hostname.
      * @param portNumber The server's port number.
      * @param data The request data to send.
@@ -117,84 +217,392 @@ public class SocketServer {
      */
 
     public String requestAndGetData(String serverName, int portNumber, String data, boolean isContentServer) {
+        boolean reused = this.reusedConnection;
+        this.reusable = false;
+        this.reusedConnection = false;
         try {
-            this.outLog.println(data);
-            StringBuilder responseBuilder = new StringBuilder();
-            String line;
-            int contentLength = 0;
-            boolean isHeader = true;
-            
-            while (isHeader && (line = this.inLog.readLine()) != null) {
-                if (line.startsWith("Content-Length: ")) {
-                    contentLength = Integer.parseInt(line.split(":")[1].trim());
-                }
+            String res;
+            try {
+                res = this.exchange(data);
+            } catch (IOException e) {
+                if (!reused) throw e;
+                res = null;
+            }
+            if (res == null && reused && isResendable(data)) {
+                System.out.println("Kept-alive connection was closed by the server, reconnecting");
+                this.connect(serverName, portNumber);
+                res = this.exchange(data);
+            }
+            if (res != null) {
+                this.reusable = isKeepAlive(data) && isKeepAlive(res);
+                this.updateLamport(res);
+            }
+            return res;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (!this.reusable) {
+                this.closeClient();
+            }
+        }
+    }
+
+    /**
+     * Sends several requests back to back on one connection and only then reads the responses,
+     * which the server returns in request order. Saves a round trip per request on bulk uploads.
+     * A reused connection found closed before the first response is replaced once and the requests resent,
+     * provided they are all GETs.
+     * @param serverName The server's hostname.
+     * @param portNumber The server's port number.
+     * @param requests The requests to send, each marked "Connection: keep-alive" except possibly the last.
+     * @return The responses in request order; shorter than the requests if the server closed the connection early.
+     */
+    public List<String> pipeline(String serverName, int portNumber, List<String> requests) {
+        boolean reused = this.reusedConnection;
+        this.reusable = false;
+        this.reusedConnection = false;
+        List<String> responses = new ArrayList<>();
+        try {
+            try {
+                responses = this.exchangeAll(requests);
+            } catch (IOException e) {
+                if (!reused) throw e;
+            }
+            if (responses.isEmpty() && reused && !requests.isEmpty() && requests.stream().allMatch(SocketServer::isResendable)) {
+                System.out.println("Kept-alive connection was closed by the server, reconnecting");
+                this.connect(serverName, portNumber);
+                responses = this.exchangeAll(requests);
+            }
+            if (!responses.isEmpty()) {
+                String last = responses.get(responses.size() - 1);
+                this.reusable = responses.size() == requests.size()
+                    && isKeepAlive(requests.get(requests.size() - 1)) && isKeepAlive(last);
+                this.updateLamport(last);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            if (!this.reusable) {
+                this.closeClient();
+            }
+        }
+        return responses;
+    }
+
+    private List<String> exchangeAll(List<String> requests) throws IOException {
+        List<String> responses = new ArrayList<>();
+        for (String request : requests) {
+            this.outLog.print(request);
+            this.outLog.print("\n");
+        }
+        this.outLog.flush();
+        if (this.outLog.checkError()) {
+            return responses;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            String res = this.readResponse();
+            if (res == null) {
+                break;
+            }
+            responses.add(res);
+        }
+        return responses;
+    }
+
+    /**
+     * Writes one request and reads one full response, body included.
+     * @return The response, or null if the server closed the connection without answering.
+     */
+    private String exchange(String data) throws IOException {
+        this.outLog.println(data);
+        if (this.outLog.checkError()) {
+            return null;
+        }
+        return this.readResponse();
+    }
 
-                responseBuilder.append(line).append("\r\n");
+    private String readResponse() throws IOException {
+        return readMessage(this.inLog);
+    }
 
-                if (line.isEmpty()) {
-                    isHeader = false;
+    private void updateLamport(String res) {
+        for (String line : res.split("\r\n")) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (line.startsWith("Lamport: ")) {
+                try {
+                    this.lastLamport = Integer.parseInt(line.substring(9).trim());
+                } catch (NumberFormatException e) {
+                    // keep the previous value
                 }
+                break;
             }
+        }
+    }
 
-            if (!isContentServer && contentLength > 0) {
-                char[] bodyChars = new char[contentLength];
-                this.inLog.read(bodyChars, 0, contentLength);
-                responseBuilder.append(bodyChars);
-            }
-            return responseBuilder.toString();
+    /**
+     * Sends a single line to the client without closing the connection.
+     * Used by AggregationServer to greet a new connection with its Lamport clock.
+     * @param message The line to send.
+     * @param clientSocket The client's socket connection.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void send(String message, Socket clientSocket) throws IOException {
+        PrintWriter out = writer(clientSocket, true);
+        out.println(message);
+        out.flush();
+    }
 
-        } catch (IOException e) {
+    /**
+     * Reads the entire request from a client socket.
+     * @param clientSocket The client's socket connection.
+     * @return The complete request as a String, or null if the client closed the connection first.
+     */
+    public String request(Socket clientSocket) {
+        HttpRequest request = this.nextRequest(clientSocket);
+        return request != null ? request.toString() : null;
+    }
+
+    /**
+     * Reads the next request from a client socket and parses it.
+     * Used by AggregationServer to process incoming requests from clients and content servers.
+     * The received bytes go straight to the parser; the body is a view of them rather than a copy.
+     * @param clientSocket The client's socket connection.
+     * @return The parsed request, or null if the client closed the connection first.
+     */
+    public HttpRequest nextRequest(Socket clientSocket) {
+        try {
+            return inbound(clientSocket).next();
+        } catch (Exception e) {
             e.printStackTrace();
             return null;
+        }
+    }
+
+    /**
+     * Waits for the next request on a kept-alive connection.
+     * @param clientSocket The client's socket connection.
+     * @param idleMillis How long the connection may stay idle.
+     * @return The parsed request, or null if the client closed the connection or stayed idle too long.
+     */
+    public HttpRequest awaitRequest(Socket clientSocket, long idleMillis) {
+        try {
+            clientSocket.setSoTimeout((int) idleMillis);
+            return inbound(clientSocket).next();
+        } catch (SocketTimeoutException e) {
+            return null;
+        } catch (IOException e) {
+            if (!clientSocket.isClosed()) e.printStackTrace();
+            return null;
         } finally {
-            this.close();
+            try {
+                if (!clientSocket.isClosed()) clientSocket.setSoTimeout(0);
+            } catch (IOException e) {
+                // closed concurrently
+            }
         }
     }
 
     /**
-     * Reads the entire request from a client socket.
-     * Used by AggregationServer to process incoming requests from clients and content servers.
+     * Asks to be called back once the next request on a kept-alive connection is complete, so no thread
+     * has to wait for it. Only event loop based servers can do this.
      * @param clientSocket The client's socket connection.
-     * @return The complete request as a String.
+     * @param idleMillis How long the connection may stay idle.
+     * @param callback Receives the request, or null if the client closed the connection or stayed idle too long.
+     * @return false if the connection is not watched; the caller then waits with awaitRequest.
      */
-    public String request(Socket clientSocket) {
-        StringBuilder requestBuilder = new StringBuilder();
+    public boolean onNextRequest(Socket clientSocket, long idleMillis, Consumer<HttpRequest> callback) {
+        return false;
+    }
 
+    /**
+     * Takes a request the client pipelined behind the one just answered, without waiting for one.
+     * @param clientSocket The client's socket connection.
+     * @return The parsed request if one has already started arriving, otherwise null.
+     */
+    public HttpRequest pollRequest(Socket clientSocket) {
+        Inbound inbound = readers.get(clientSocket);
+        if (inbound == null) {
+            return null;
+        }
         try {
-            InputStream input = clientSocket.getInputStream();
-            BufferedReader in = new BufferedReader(new InputStreamReader(input));
-            
-            String line;
-            int contentLength = 0;
-            boolean isHeader = true;
-            while (isHeader && (line = in.readLine()) != null) {
-                if (line.startsWith("Content-Length: ")) {
-                    contentLength = Integer.parseInt(line.split(":")[1].trim());
+            return inbound.poll();
+        } catch (IOException e) {
+            // the connection is no longer usable; the caller finds out on its next read
+            return null;
+        }
+    }
+
+    private static Inbound inbound(Socket clientSocket) throws IOException {
+        Inbound inbound = readers.get(clientSocket);
+        if (inbound == null) {
+            inbound = new Inbound(clientSocket.getInputStream());
+            readers.put(clientSocket, inbound);
+        }
+        return inbound;
+    }
+
+    /**
+     * The bytes received on one accepted connection and the parser working through them.
+     * Bodies handed out are views of the buffer, so once one was handed out the buffer is never
+     * written over; the unparsed rest moves to a new buffer when more room is needed.
+     */
+    private static final class Inbound {
+        private static final int INITIAL_CAPACITY = 8192;
+
+        private final InputStream in;
+        private final HttpRequestParser parser = new HttpRequestParser();
+        // unparsed bytes from position to limit
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY).flip();
+        private boolean handedOut;
+
+        Inbound(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return The next request, or null if the stream ended before it started.
+         * @throws IOException If reading fails, the request is too long or the stream ends inside it.
+         */
+        HttpRequest next() throws IOException {
+            while (true) {
+                HttpRequest request;
+                try {
+                    request = this.parser.next(this.buffer);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
                 }
-                requestBuilder.append(line).append("\r\n");
-                if (line.isEmpty()) {
-                    isHeader = false;
+                if (request != null) {
+                    this.handedOut |= request.getBodyLength() > 0;
+                    return request;
                 }
-            }
-            if (contentLength > 0) {
-                char[] bodyChars = new char[contentLength];
-                int bytesRead = 0;
-                while (bytesRead < contentLength) {
-                    int result = in.read(bodyChars, bytesRead, contentLength - bytesRead);
-                    if (result == -1) {
-                        break;
+                if (!this.fill()) {
+                    if (this.buffer.hasRemaining()) {
+                        throw new EOFException("Connection closed inside a request");
                     }
-                    bytesRead += result;
+                    return null;
                 }
-                requestBuilder.append(bodyChars);
             }
-            
-            return requestBuilder.toString();
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        /**
+         * @return The next request if one has already started arriving, otherwise null without waiting.
+         */
+        HttpRequest poll() throws IOException {
+            while (!this.started()) {
+                if (this.in.available() <= 0 || !this.fill()) {
+                    return null;
+                }
+            }
+            return this.next();
+        }
+
+        /**
+         * Skips line breaks left after the previous request.
+         * @return true if a byte of the next request is buffered.
+         */
+        private boolean started() {
+            while (this.buffer.hasRemaining()) {
+                byte b = this.buffer.get(this.buffer.position());
+                if (b != '\r' && b != '\n') {
+                    return true;
+                }
+                this.buffer.position(this.buffer.position() + 1);
+            }
+            return false;
+        }
+
+        /**
+         * Reads what has arrived behind the unparsed bytes.
+         * @return false at the end of the stream.
+         */
+        private boolean fill() throws IOException {
+            if (this.buffer.limit() == this.buffer.capacity()) {
+                int remaining = this.buffer.remaining();
+                if (this.handedOut || remaining > this.buffer.capacity() / 2) {
+                    ByteBuffer moved = ByteBuffer.allocate(Math.max(INITIAL_CAPACITY, remaining * 2));
+                    moved.put(this.buffer).flip();
+                    this.buffer = moved;
+                    this.handedOut = false;
+                } else {
+                    this.buffer.compact().flip();
+                }
+            }
+            int limit = this.buffer.limit();
+            int read = this.in.read(this.buffer.array(), limit, this.buffer.capacity() - limit);
+            if (read == -1) {
+                return false;
+            }
+            this.buffer.limit(limit + read);
+            return true;
+        }
+    }
+
+    /**
+     * Reads one response: the status line and headers up to the blank line, then the body.
+     * Content-Length counts the body's UTF-8 bytes, as the servers send it.
+     * @param in The connection's buffered input.
+     * @return The message, or null if the stream ended before it started.
+     * @throws IOException If reading fails.
+     */
+    private static String readMessage(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        String line;
+        int contentLength = 0;
+        boolean isHeader = true;
+        boolean started = false;
+        while (isHeader && (line = readLine(in)) != null) {
+            if (!started && line.isEmpty()) {
+                // line break left after the previous message on a kept-alive connection
+                continue;
+            }
+            started = true;
+            if (line.startsWith("Content-Length: ")) {
+                try {
+                    contentLength = Integer.parseInt(line.split(":")[1].trim());
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+                if (contentLength < 0 || contentLength > HttpRequestParser.MAX_CONTENT_LENGTH) {
+                    throw new IOException("Invalid " + line);
+                }
+            }
+            builder.append(line).append("\r\n");
+            if (line.isEmpty()) {
+                isHeader = false;
+            }
+        }
+        if (!started) {
             return null;
         }
+        if (contentLength > 0) {
+            builder.append(new String(in.readNBytes(contentLength), StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a line ending in LF or CRLF and decodes it as UTF-8.
+     * @return The line without its line break, or null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static PrintWriter writer(Socket socket, boolean autoFlush) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), autoFlush);
     }
 
     /**
@@ -217,13 +625,53 @@ public class SocketServer {
      * @param clientSocket The client's socket connection.
      */
     public void response(String response, Socket clientSocket) {
+        // a writer per call: workers answer their own clients through this one server at the same time
+        PrintWriter out = null;
         try {
-            this.outLog = new PrintWriter(clientSocket.getOutputStream(), true);
-            this.outLog.println(response);
+            out = writer(clientSocket, true);
+            out.println(response);
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            this.outLog.close();
+            if (out != null) {
+                readers.remove(clientSocket);
+                out.close();
+            } else {
+                this.closeConnection(clientSocket);
+            }
+        }
+    }
+
+    /**
+     * Sends a response, leaving the connection open for the next request if keepAlive is set.
+     * @param response The response string to send.
+     * @param clientSocket The client's socket connection.
+     * @param keepAlive Whether the connection is kept alive.
+     * @throws IOException If a kept-alive response cannot be written.
+     */
+    public void respond(String response, Socket clientSocket, boolean keepAlive) throws IOException {
+        if (!keepAlive) {
+            this.response(response, clientSocket);
+            return;
+        }
+        PrintWriter out = writer(clientSocket, false);
+        out.print(response);
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Client closed the connection");
+        }
+    }
+
+    /**
+     * Closes a connection accepted by this server.
+     * @param clientSocket The client's socket connection.
+     */
+    public void closeConnection(Socket clientSocket) {
+        readers.remove(clientSocket);
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 }
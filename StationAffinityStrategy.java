@@ -0,0 +1,82 @@
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Consistent hashing on the StationID, so reads and writes for one station land on the same server.
+ * Each server owns several points on the ring; when a server is unhealthy its stations move to the next
+ * point clockwise and come back once it recovers. Requests without a StationID fall back to failover.
+ * The server is chosen once per connection, from its first request: later requests on a kept-alive or
+ * pipelined connection stay on that server even if they carry another StationID. Clients that switch
+ * stations and want every station on its own server open a connection per station, or turn keep-alive off.
+ */
+public class StationAffinityStrategy implements LoadBalancingStrategy {
+    private static final int POINTS_PER_SERVER = 64;
+    private final FailoverStrategy fallback = new FailoverStrategy();
+    private TreeMap<Integer, AggregationServer> ring;
+    private List<AggregationServer> ringServers;
+
+    @Override
+    public AggregationServer select(List<AggregationServer> servers, Predicate<AggregationServer> healthy, String stationId) {
+        if (stationId == null) {
+            return this.fallback.select(servers, healthy, null);
+        }
+        TreeMap<Integer, AggregationServer> ring = ring(servers);
+        if (ring.isEmpty()) {
+            return null;
+        }
+        int hash = hash(stationId);
+        for (Map.Entry<Integer, AggregationServer> point : ring.tailMap(hash, true).entrySet()) {
+            if (healthy.test(point.getValue())) {
+                return point.getValue();
+            }
+        }
+        for (Map.Entry<Integer, AggregationServer> point : ring.headMap(hash, false).entrySet()) {
+            if (healthy.test(point.getValue())) {
+                return point.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the ring on first use and again if the server list changes.
+     */
+    private synchronized TreeMap<Integer, AggregationServer> ring(List<AggregationServer> servers) {
+        if (this.ring == null || !servers.equals(this.ringServers)) {
+            TreeMap<Integer, AggregationServer> ring = new TreeMap<>();
+            for (int i = 0; i < servers.size(); i++) {
+                for (int point = 0; point < POINTS_PER_SERVER; point++) {
+                    ring.put(hash("server-" + i + "#" + point), servers.get(i));
+                }
+            }
+            this.ring = ring;
+            this.ringServers = List.copyOf(servers);
+        }
+        return this.ring;
+    }
+
+    /**
+     * String.hashCode spread with the murmur3 finalizer, so similar station IDs land far apart.
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public String name() {
+        return "station";
+    }
+
+    @Override
+    public boolean usesStationId() {
+        return true;
+    }
+}
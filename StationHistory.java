@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Bounded history of one station, kept sorted by Lamport clock in a ring buffer.
+ * Holds at most `capacity` records (the lowest Lamport is evicted first) and can drop records older
+ * than a maximum age, so long-running stations use constant memory.
+ * "Latest with lamport <= L" is a binary search.
+ * Records are kept as objects; ColumnarStationHistory keeps the same ring in primitive columns instead,
+ * MappedStationHistory in a memory-mapped snapshot.
+ */
+public class StationHistory {
+    private final WeatherFormat[] records;
+    protected final int capacity;
+    private final long maxAgeMillis;
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity Maximum number of records kept.
+     * @param maxAgeMillis Maximum record age used by pruneExpired, 0 to keep records regardless of age.
+     */
+    public StationHistory(int capacity, long maxAgeMillis) {
+        this(capacity, maxAgeMillis, true);
+    }
+
+    /**
+     * @param objects false for subclasses that keep the records in their own storage.
+     */
+    protected StationHistory(int capacity, long maxAgeMillis, boolean objects) {
+        this.capacity = Math.max(1, capacity);
+        this.records = objects ? new WeatherFormat[this.capacity] : null;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Inserts a record at its Lamport position, after records with the same Lamport.
+     * When full, the record with the lowest Lamport is evicted.
+     * @param record The record to add.
+     */
+    public synchronized void add(WeatherFormat record) {
+        if (this.size == this.capacity) {
+            if (record.getLamport() < this.lamportAt(this.slot(0))) {
+                return;
+            }
+            this.clear(this.head);
+            this.head = (this.head + 1) % this.capacity;
+            this.size--;
+        }
+        int pos = this.upperBound(record.getLamport());
+        for (int i = this.size; i > pos; i--) {
+            this.move(this.slot(i - 1), this.slot(i));
+        }
+        this.store(this.slot(pos), record);
+        this.size++;
+    }
+
+    /**
+     * Finds the most recent record whose Lamport clock is not after the given one.
+     * @param lamport The requested Lamport clock.
+     * @return The matching record, or null if every record is newer.
+     */
+    public synchronized WeatherFormat latestAtOrBefore(int lamport) {
+        int pos = this.upperBound(lamport);
+        return pos == 0 ? null : this.load(this.slot(pos - 1));
+    }
+
+    /**
+     * @return The highest Lamport clock in the history, 0 when empty.
+     */
+    public synchronized int highestLamport() {
+        return this.size == 0 ? 0 : this.lamportAt(this.slot(this.size - 1));
+    }
+
+    /**
+     * Removes every record matching the filter, keeping the order of the rest.
+     * @param filter The records to remove.
+     * @return The number of removed records.
+     */
+    public synchronized int removeIf(Predicate<WeatherFormat> filter) {
+        return this.removeSlots(slot -> filter.test(this.load(slot)));
+    }
+
+    /**
+     * Removes every record written by a sender, e.g. once the sender expired.
+     * @param source The sender.
+     * @return The number of removed records.
+     */
+    public synchronized int removeSource(String source) {
+        return this.removeSlots(slot -> source.equals(this.sourceAt(slot)));
+    }
+
+    /**
+     * Drops records received longer than maxAgeMillis ago. Records without a receive time are kept.
+     * @param now The current time in milliseconds.
+     * @return The number of removed records.
+     */
+    public synchronized int pruneExpired(long now) {
+        if (this.maxAgeMillis <= 0) return 0;
+        return this.removeSlots(slot -> {
+            long time = this.timeAt(slot);
+            return time > 0 && now - time > this.maxAgeMillis;
+        });
+    }
+
+    private int removeSlots(Predicate<Integer> remove) {
+        int kept = 0;
+        for (int i = 0; i < this.size; i++) {
+            int slot = this.slot(i);
+            if (!remove.test(slot)) {
+                if (kept != i) this.move(slot, this.slot(kept));
+                kept++;
+            }
+        }
+        int removed = this.size - kept;
+        for (int i = kept; i < this.size; i++) {
+            this.clear(this.slot(i));
+        }
+        this.size = kept;
+        return removed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Copies the records in Lamport order.
+     * @return The records, lowest Lamport first.
+     */
+    public synchronized List<WeatherFormat> toList() {
+        List<WeatherFormat> list = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            list.add(this.load(this.slot(i)));
+        }
+        return list;
+    }
+
+    /**
+     * Copies the records into a LinkedList, the type DatabaseManagement used to expose.
+     * @return The records, lowest Lamport first.
+     */
+    public LinkedList<WeatherFormat> toLinkedList() {
+        return new LinkedList<>(this.toList());
+    }
+
+    private int upperBound(int lamport) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.lamportAt(this.slot(mid)) <= lamport) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param index The position in Lamport order, 0 for the lowest.
+     * @return The ring slot holding it.
+     */
+    protected int slot(int index) {
+        return (this.head + index) % this.capacity;
+    }
+
+    // Storage of one ring slot, overridden by ColumnarStationHistory and MappedStationHistory.
+
+    protected WeatherFormat load(int slot) {
+        return this.records[slot];
+    }
+
+    protected void store(int slot, WeatherFormat record) {
+        this.records[slot] = record;
+    }
+
+    protected void move(int from, int to) {
+        this.records[to] = this.records[from];
+    }
+
+    protected void clear(int slot) {
+        this.records[slot] = null;
+    }
+
+    protected int lamportAt(int slot) {
+        return this.records[slot].getLamport();
+    }
+
+    protected long timeAt(int slot) {
+        return this.records[slot].getTime();
+    }
+
+    protected String sourceAt(int slot) {
+        return this.records[slot].getSource();
+    }
+}
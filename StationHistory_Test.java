@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationHistory_Test {
+
+    private WeatherFormat record(int lamport, String source) {
+        return new WeatherFormat(lamport, source, null);
+    }
+
+    @Test
+    void testLatestAtOrBefore() {
+        StationHistory history = new StationHistory(10, 0);
+        history.add(record(5, "A"));
+        history.add(record(1, "A"));
+        history.add(record(9, "B"));
+        history.add(record(3, "B"));
+
+        assertNull(history.latestAtOrBefore(0));
+        assertEquals(1, history.latestAtOrBefore(2).getLamport());
+        assertEquals(5, history.latestAtOrBefore(8).getLamport());
+        assertEquals(9, history.latestAtOrBefore(100).getLamport());
+        assertEquals(9, history.highestLamport());
+    }
+
+    @Test
+    void testSameLamportReturnsLatestArrival() {
+        StationHistory history = new StationHistory(10, 0);
+        history.add(record(4, "A"));
+        history.add(record(4, "B"));
+
+        assertEquals("B", history.latestAtOrBefore(4).getSource());
+    }
+
+    @Test
+    void testCapacityEvictsLowestLamport() {
+        StationHistory history = new StationHistory(3, 0);
+        for (int i = 1; i <= 10; i++) {
+            history.add(record(i, "A"));
+        }
+        history.add(record(2, "A"));
+
+        List<WeatherFormat> records = history.toList();
+        assertEquals(3, records.size());
+        assertEquals(8, records.get(0).getLamport());
+        assertEquals(10, records.get(2).getLamport());
+    }
+
+    @Test
+    void testOutOfOrderInsertAfterWrapAround() {
+        StationHistory history = new StationHistory(4, 0);
+        for (int i = 1; i <= 6; i += 1) {
+            history.add(record(i * 10, "A"));
+        }
+        history.add(record(45, "A"));
+
+        List<WeatherFormat> records = history.toList();
+        assertEquals(4, records.size());
+        assertEquals(40, records.get(0).getLamport());
+        assertEquals(45, records.get(1).getLamport());
+        assertEquals(60, records.get(3).getLamport());
+        assertEquals(45, history.latestAtOrBefore(49).getLamport());
+    }
+
+    @Test
+    void testRemoveIfKeepsOrder() {
+        StationHistory history = new StationHistory(5, 0);
+        history.add(record(1, "A"));
+        history.add(record(2, "B"));
+        history.add(record(3, "A"));
+        history.add(record(4, "B"));
+
+        assertEquals(2, history.removeIf(d -> "A".equals(d.getSource())));
+        assertEquals(2, history.size());
+        assertEquals(2, history.latestAtOrBefore(3).getLamport());
+        assertEquals(4, history.highestLamport());
+    }
+
+    @Test
+    void testColumnarMatchesObjectHistory() {
+        StationHistory objects = new StationHistory(8, 0);
+        StationHistory columns = new ColumnarStationHistory(8, 0);
+        for (int i = 0; i < 200; i++) {
+            // out of order Lamports, a unique timestamp per reading, a value kept as sent
+            int lamport = (i * 37) % 101;
+            JsonObject data = new JsonObject();
+            data.addProperty("id", "IDS60901");
+            data.addProperty("local_date_time_full", "2023071516" + i);
+            data.addProperty("air_temp", i / 4.0);
+            data.addProperty("rel_hum", "" + (i % 100));
+            if (i % 7 == 0) data.addProperty("gust", "n/a");
+            WeatherFormat record = WeatherFormat.of(lamport, i % 3 == 0 ? "A" : "B", WeatherReading.fromJson(data), 1000 + i);
+            objects.add(record);
+            columns.add(record);
+        }
+        columns.add(record(500, null));
+        objects.add(record(500, null));
+        int removed = objects.removeSource("A");
+        assertTrue(removed > 0);
+        assertEquals(removed, columns.removeSource("A"));
+
+        List<WeatherFormat> expected = objects.toList();
+        List<WeatherFormat> actual = columns.toList();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(JsonHandling.convertJSON(expected.get(i)), JsonHandling.convertJSON(actual.get(i)));
+        }
+        assertEquals(objects.highestLamport(), columns.highestLamport());
+        assertEquals(JsonHandling.convertJSON(objects.latestAtOrBefore(99)), JsonHandling.convertJSON(columns.latestAtOrBefore(99)));
+        assertNull(columns.latestAtOrBefore(500).getReading());
+    }
+
+    @Test
+    void testColumnarPruneExpired() {
+        StationHistory history = new ColumnarStationHistory(4, 100);
+        history.add(WeatherFormat.of(1, "A", null, 1000));
+        history.add(WeatherFormat.of(2, "B", null, 1150));
+        history.add(WeatherFormat.of(3, "C", null, 0));
+        assertEquals(1, history.pruneExpired(1200));
+        assertEquals(2, history.size());
+        assertEquals("B", history.latestAtOrBefore(2).getSource());
+        assertEquals(1150, history.latestAtOrBefore(2).getTime());
+    }
+
+    @Test
+    void testColumnarDictionaryOnlyHoldsRepeatedValues() {
+        StationHistory first = new ColumnarStationHistory(100000, 0);
+        StationHistory second = new ColumnarStationHistory(100000, 0);
+        int before = ColumnarStationHistory.dictionarySize();
+        for (int i = 0; i < 500; i++) {
+            JsonObject data = new JsonObject();
+            data.addProperty("id", "IDSDICT");
+            data.addProperty("name", "Dictionary Station");
+            data.addProperty("local_date_time", "15/" + i + "pm");
+            data.addProperty("local_date_time_full", "2023071516" + i);
+            // a sender per reading, as every ContentServer instance has an ID of its own
+            first.add(WeatherFormat.of(i, "dict-source-" + i, WeatherReading.fromJson(data), 1000 + i));
+            int words = ColumnarStationHistory.dictionarySize();
+            second.add(WeatherFormat.of(i, "dict-source-" + i, WeatherReading.fromJson(data), 1000 + i));
+            assertEquals(words, ColumnarStationHistory.dictionarySize(), "Stations share one dictionary");
+        }
+        assertTrue(ColumnarStationHistory.dictionarySize() - before <= 2, "Timestamps and sources stay out of the dictionary");
+        assertEquals("dict-source-7", first.latestAtOrBefore(7).getSource());
+        assertEquals("2023071516499", second.latestAtOrBefore(499).getReading().text(WeatherReading.Field.LOCAL_DATE_TIME_FULL));
+        assertEquals("Dictionary Station", first.latestAtOrBefore(0).getReading().getName());
+        assertEquals(500, first.size());
+    }
+
+    private static WeatherFormat reading(int lamport, double airTemp) {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "IDSMAP");
+        data.addProperty("air_temp", airTemp);
+        return WeatherFormat.of(lamport, "A", WeatherReading.fromJson(data), 1000 + lamport);
+    }
+
+    @Test
+    void testMappedRebindSkipsHistoryChangedSinceCapture(@TempDir Path dir) throws IOException {
+        MappedStationHistory history = new MappedStationHistory(2, 0);
+        history.add(reading(1, 1.5));
+        history.add(reading(2, 2.5));
+        MappedStationHistory.Snapshot captured = history.snapshot();
+        // the full ring evicts a record for the new one, so the size does not change
+        history.add(reading(3, 3.5));
+
+        Path file = dir.resolve("data.dat");
+        int[] written;
+        try (MappedRecordStore.Writer writer = new MappedRecordStore.Writer(file)) {
+            written = captured.writeTo(writer, "IDSMAP");
+        }
+        captured.rebind(MappedRecordStore.open(file, null), written);
+        assertEquals(3.5, history.latestAtOrBefore(3).getReading().getAirTemp());
+        assertEquals(2.5, history.latestAtOrBefore(2).getReading().getAirTemp());
+
+        MappedStationHistory.Snapshot current = history.snapshot();
+        Path next = dir.resolve("next.dat");
+        try (MappedRecordStore.Writer writer = new MappedRecordStore.Writer(next)) {
+            written = current.writeTo(writer, "IDSMAP");
+        }
+        current.rebind(MappedRecordStore.open(next, null), written);
+        assertEquals(3.5, history.latestAtOrBefore(3).getReading().getAirTemp(), "An unchanged history is rebound");
+        assertEquals(2, history.size());
+    }
+}
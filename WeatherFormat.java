@@ -3,18 +3,51 @@ import com.google.gson.JsonObject;
 public class WeatherFormat implements Comparable<WeatherFormat> {
     private int lamport;
     private String source;
-    private JsonObject data;
+    private WeatherReading data;
+    private long time;
 
     public WeatherFormat(int lamport, String source, JsonObject data) {
+        this(lamport, source, WeatherReading.fromJson(data));
+    }
+
+    private WeatherFormat(int lamport, String source, WeatherReading data) {
         this.lamport = lamport;
         this.source = source;
         this.data = data;
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * @param lamport The Lamport clock of the record.
+     * @param source The sender.
+     * @param reading The reading, as decoded from the PUT body.
+     * @return The record.
+     */
+    public static WeatherFormat of(int lamport, String source, WeatherReading reading) {
+        return new WeatherFormat(lamport, source, reading);
+    }
+
+    /**
+     * Rebuilds a stored record, keeping the time it was received.
+     * @param time The receive time in milliseconds.
+     */
+    public static WeatherFormat of(int lamport, String source, WeatherReading reading, long time) {
+        WeatherFormat record = new WeatherFormat(lamport, source, reading);
+        record.time = time;
+        return record;
     }
 
     public int getLamport() {
         return this.lamport;
     }
+    /**
+     * @return The reading as a Gson tree, built on each call; use getReading to avoid that.
+     */
     public JsonObject getData() {
+        return this.data != null ? this.data.toJsonObject() : null;
+    }
+
+    public WeatherReading getReading() {
         return this.data;
     }
     @Override
@@ -24,4 +57,10 @@ public class WeatherFormat implements Comparable<WeatherFormat> {
     public String getSource() {
         return this.source;
     }
+    /**
+     * Time the record was received, 0 for records stored before it was tracked.
+     */
+    public long getTime() {
+        return this.time;
+    }
 }
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * One station reading held in typed fields instead of a Gson tree: doubles for the measurements,
+ * ints for humidity and wind speeds, interned strings for names and codes. The fields are described by
+ * the Field table, which stores each in a slot of the array for its kind.
+ * Readings are decoded straight from the JSON stream and written back exactly as they were sent:
+ * numbers sent as strings stay strings, "40" stays "40", and any field that is unknown or does not fit
+ * its type is kept as sent in an extra map. A name sent twice keeps its later value.
+ */
+@JsonAdapter(WeatherReading.Adapter.class)
+public class WeatherReading {
+    private static final int ABSENT_INT = Integer.MIN_VALUE;
+    private static final TypeAdapter<JsonElement> ELEMENTS = new Gson().getAdapter(JsonElement.class);
+    private static final Adapter ADAPTER = new Adapter();
+
+    /**
+     * How a typed field is stored.
+     */
+    enum Kind {
+        TEXT, DOUBLE, INT
+    }
+
+    /**
+     * The typed fields, in the order of the weather station files, which is also the order they are written in.
+     * Each field has a slot in the array of its kind; ColumnarStationHistory keeps a column for each.
+     */
+    enum Field {
+        ID("id", Kind.TEXT, true),
+        NAME("name", Kind.TEXT, true),
+        STATE("state", Kind.TEXT, true),
+        TIME_ZONE("time_zone", Kind.TEXT, true),
+        LAT("lat", Kind.DOUBLE, false),
+        LON("lon", Kind.DOUBLE, false),
+        LOCAL_DATE_TIME("local_date_time", Kind.TEXT, false),
+        LOCAL_DATE_TIME_FULL("local_date_time_full", Kind.TEXT, false),
+        AIR_TEMP("air_temp", Kind.DOUBLE, false),
+        APPARENT_T("apparent_t", Kind.DOUBLE, false),
+        CLOUD("cloud", Kind.TEXT, true),
+        DEWPT("dewpt", Kind.DOUBLE, false),
+        PRESS("press", Kind.DOUBLE, false),
+        REL_HUM("rel_hum", Kind.INT, false),
+        WIND_DIR("wind_dir", Kind.TEXT, true),
+        WIND_SPD_KMH("wind_spd_kmh", Kind.INT, false),
+        WIND_SPD_KT("wind_spd_kt", Kind.INT, false);
+
+        static final Field[] TEXTS = ofKind(Kind.TEXT);
+        static final Field[] DOUBLES = ofKind(Kind.DOUBLE);
+        static final Field[] INTS = ofKind(Kind.INT);
+        private static final Map<String, Field> BY_NAME = new HashMap<>();
+
+        static {
+            for (Field field : values()) {
+                BY_NAME.put(field.json, field);
+            }
+        }
+
+        final String json;
+        final Kind kind;
+        // text values shared by many readings, e.g. names and codes, rather than one per reading like timestamps
+        final boolean repeated;
+        private int slot;
+
+        Field(String json, Kind kind, boolean repeated) {
+            this.json = json;
+            this.kind = kind;
+            this.repeated = repeated;
+        }
+
+        private static Field[] ofKind(Kind kind) {
+            Field[] fields = Arrays.stream(values()).filter(field -> field.kind == kind).toArray(Field[]::new);
+            for (int slot = 0; slot < fields.length; slot++) {
+                fields[slot].slot = slot;
+            }
+            return fields;
+        }
+
+        /**
+         * @return The field of a JSON name, or null for a field that is not typed.
+         */
+        static Field named(String json) {
+            return BY_NAME.get(json);
+        }
+
+        private int bit() {
+            return 1 << this.ordinal();
+        }
+    }
+
+    private final String[] texts = new String[Field.TEXTS.length];
+    private final double[] doubles = new double[Field.DOUBLES.length];
+    private final int[] ints = new int[Field.INTS.length];
+    // one bit per Field: the number was sent as a JSON string
+    private int quoted;
+    // one bit per Field: a double was written without a fraction, e.g. 40 rather than 40.0
+    private int integral;
+    // unknown fields and values that do not fit their field's type, as sent; null when there are none
+    private Map<String, JsonElement> extra;
+
+    public WeatherReading() {
+        Arrays.fill(this.doubles, Double.NaN);
+        Arrays.fill(this.ints, ABSENT_INT);
+    }
+
+    /**
+     * Decodes a PUT body holding one reading.
+     * @param body The body.
+     * @return The reading, or null if the body holds another kind of value or nothing.
+     * @throws JsonParseException If the body is not valid JSON.
+     */
+    public static WeatherReading read(Reader body) throws JsonParseException {
+        try (JsonReader in = new JsonReader(body)) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            return ADAPTER.read(in);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Decodes a batch body: the elements of a JSON array, or the values of an NDJSON stream.
+     * @param body The body.
+     * @return The readings in order, with null for every value that is not an object.
+     * @throws JsonParseException If the body is not valid JSON.
+     */
+    public static List<WeatherReading> readAll(Reader body) throws JsonParseException {
+        List<WeatherReading> readings = new ArrayList<>();
+        try (JsonReader in = new JsonReader(body)) {
+            in.setLenient(true);
+            while (in.peek() != JsonToken.END_DOCUMENT) {
+                if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        readings.add(readItem(in));
+                    }
+                    in.endArray();
+                } else {
+                    readings.add(readItem(in));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+        return readings;
+    }
+
+    private static WeatherReading readItem(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+        return ADAPTER.read(in);
+    }
+
+    /**
+     * @param json A reading as a Gson tree, e.g. built by ContentServer from a station file.
+     * @return The typed reading, or null for null.
+     */
+    public static WeatherReading fromJson(JsonObject json) {
+        return json != null ? ADAPTER.fromJsonTree(json) : null;
+    }
+
+    /**
+     * @return The reading as a Gson tree, for callers that work on JSON objects.
+     */
+    public JsonObject toJsonObject() {
+        return ADAPTER.toJsonTree(this).getAsJsonObject();
+    }
+
+    public String getId() {
+        return this.text(Field.ID);
+    }
+
+    public String getName() {
+        return this.text(Field.NAME);
+    }
+
+    public double getLat() {
+        return this.doubleValue(Field.LAT);
+    }
+
+    public double getLon() {
+        return this.doubleValue(Field.LON);
+    }
+
+    public double getAirTemp() {
+        return this.doubleValue(Field.AIR_TEMP);
+    }
+
+    public double getApparentT() {
+        return this.doubleValue(Field.APPARENT_T);
+    }
+
+    public double getDewpt() {
+        return this.doubleValue(Field.DEWPT);
+    }
+
+    public double getPress() {
+        return this.doubleValue(Field.PRESS);
+    }
+
+    /**
+     * @return The relative humidity, or Integer.MIN_VALUE if the reading has none.
+     */
+    public int getRelHum() {
+        return this.intValue(Field.REL_HUM);
+    }
+
+    public int getWindSpdKmh() {
+        return this.intValue(Field.WIND_SPD_KMH);
+    }
+
+    public int getWindSpdKt() {
+        return this.intValue(Field.WIND_SPD_KT);
+    }
+
+    /**
+     * @param field A field name.
+     * @return The value of a field kept as sent, or null if the field is typed or absent.
+     */
+    public JsonElement getExtra(String field) {
+        return this.extra != null ? this.extra.get(field) : null;
+    }
+
+    /**
+     * Stores a string or number value in its typed field.
+     * @return false if the value does not fit the field's type or would not be written back the same.
+     */
+    private boolean set(Field field, String text, boolean isString) {
+        switch (field.kind) {
+            case TEXT:
+                if (!isString) return false;
+                this.setText(field, text);
+                return true;
+            case INT:
+                int number;
+                try {
+                    number = Integer.parseInt(text);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (number == ABSENT_INT || !Integer.toString(number).equals(text)) return false;
+                this.setInt(field, number);
+                break;
+            default:
+                double value;
+                try {
+                    value = Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (Double.isNaN(value) || Double.isInfinite(value)) return false;
+                boolean integer = value == Math.rint(value) && Math.abs(value) < 1e15 && Long.toString((long) value).equals(text);
+                if (!integer && !Double.toString(value).equals(text)) return false;
+                this.setDouble(field, value);
+                if (integer) this.integral |= field.bit();
+                break;
+        }
+        if (isString) this.quoted |= field.bit();
+        return true;
+    }
+
+    /**
+     * Forgets a field's value, typed or kept as sent, before a later occurrence of its name replaces it.
+     */
+    private void remove(String name, Field field) {
+        if (field != null) {
+            switch (field.kind) {
+                case TEXT: this.texts[field.slot] = null; break;
+                case DOUBLE: this.doubles[field.slot] = Double.NaN; break;
+                default: this.ints[field.slot] = ABSENT_INT; break;
+            }
+            this.quoted &= ~field.bit();
+            this.integral &= ~field.bit();
+        }
+        if (this.extra != null) {
+            this.extra.remove(name);
+        }
+    }
+
+    void setText(Field field, String text) {
+        this.texts[field.slot] = field.repeated ? text.intern() : text;
+    }
+
+    void setDouble(Field field, double value) {
+        this.doubles[field.slot] = value;
+    }
+
+    void setInt(Field field, int value) {
+        this.ints[field.slot] = value;
+    }
+
+    /**
+     * @return The value of a text field, or null if the reading has none.
+     */
+    String text(Field field) {
+        return this.texts[field.slot];
+    }
+
+    /**
+     * @return The value of a double field, NaN if the reading has none.
+     */
+    double doubleValue(Field field) {
+        return this.doubles[field.slot];
+    }
+
+    /**
+     * @return The value of an int field, Integer.MIN_VALUE if the reading has none.
+     */
+    int intValue(Field field) {
+        return this.ints[field.slot];
+    }
+
+    int quotedBits() {
+        return this.quoted;
+    }
+
+    int integralBits() {
+        return this.integral;
+    }
+
+    Map<String, JsonElement> extras() {
+        return this.extra;
+    }
+
+    /**
+     * Restores how the fields were sent, for a reading rebuilt from stored columns.
+     */
+    void restoreFormat(int quoted, int integral, Map<String, JsonElement> extra) {
+        this.quoted = quoted;
+        this.integral = integral;
+        this.extra = extra;
+    }
+
+    /**
+     * @return The value of a typed field, a String or a Number, or null if the reading has none.
+     */
+    private Object value(Field field) {
+        switch (field.kind) {
+            case TEXT:
+                return this.text(field);
+            case INT:
+                int number = this.intValue(field);
+                return number != ABSENT_INT ? (Object) number : null;
+            default:
+                double value = this.doubleValue(field);
+                if (Double.isNaN(value)) return null;
+                return (this.integral & field.bit()) != 0 ? (Object) (long) value : (Object) value;
+        }
+    }
+
+    private boolean isString(Field field) {
+        return field.kind == Kind.TEXT || (this.quoted & field.bit()) != 0;
+    }
+
+    /**
+     * Streams readings to and from JSON; registered on the class so every Gson instance uses it,
+     * including the snapshot files and the write-ahead log.
+     */
+    static class Adapter extends TypeAdapter<WeatherReading> {
+        @Override
+        public WeatherReading read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            WeatherReading reading = new WeatherReading();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                Field field = Field.named(name);
+                // a name sent twice keeps the later value only, as a JSON tree would
+                reading.remove(name, field);
+                JsonToken token = in.peek();
+                if (field == null || (token != JsonToken.STRING && token != JsonToken.NUMBER)) {
+                    reading.putExtra(name, ELEMENTS.read(in));
+                    continue;
+                }
+                String text = in.nextString();
+                if (!reading.set(field, text, token == JsonToken.STRING)) {
+                    reading.putExtra(name, token == JsonToken.STRING ? new JsonPrimitive(text) : JsonParser.parseString(text));
+                }
+            }
+            in.endObject();
+            return reading;
+        }
+
+        @Override
+        public void write(JsonWriter out, WeatherReading reading) throws IOException {
+            if (reading == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (Field field : Field.values()) {
+                Object value = reading.value(field);
+                if (value == null) continue;
+                out.name(field.json);
+                if (reading.isString(field)) {
+                    out.value(value.toString());
+                } else {
+                    out.value((Number) value);
+                }
+            }
+            if (reading.extra != null) {
+                for (Map.Entry<String, JsonElement> field : reading.extra.entrySet()) {
+                    out.name(field.getKey());
+                    ELEMENTS.write(out, field.getValue());
+                }
+            }
+            out.endObject();
+        }
+    }
+
+    private void putExtra(String field, JsonElement value) {
+        if (this.extra == null) {
+            this.extra = new LinkedHashMap<>();
+        }
+        this.extra.put(field, value);
+    }
+}
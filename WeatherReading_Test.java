@@ -0,0 +1,68 @@
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+class WeatherReading_Test {
+
+    @Test
+    void testTypedFieldsRoundTrip() throws Exception {
+        JsonObject station = JsonHandling.convertTextToJson(JsonHandling.read("data1_1.txt"));
+        WeatherReading reading = WeatherReading.read(new StringReader(JsonHandling.compact(station)));
+        assertEquals("IDS60901", reading.getId());
+        assertEquals(40.0, reading.getLat());
+        assertEquals(138.6, reading.getLon());
+        assertEquals(1023.9, reading.getPress());
+        assertEquals(60, reading.getRelHum());
+        assertEquals(15, reading.getWindSpdKmh());
+        assertSame("IDS60901", reading.getId(), "Station IDs are interned");
+
+        // written back exactly as sent: strings stay strings, "40" stays "40"
+        assertEquals(JsonHandling.compact(station), JsonHandling.serialize(reading, true));
+        assertEquals(station, reading.toJsonObject());
+        assertEquals(JsonHandling.prettier(station), JsonHandling.serialize(reading, false));
+    }
+
+    @Test
+    void testNumbersUnknownFieldsAndBatches() {
+        String json = "{\"id\":\"IDS1\",\"air_temp\":20.0,\"lat\":40,\"rel_hum\":\"n/a\",\"dewpt\":1.50,\"gust\":{\"kmh\":30}}";
+        WeatherReading reading = WeatherReading.read(new StringReader(json));
+        assertEquals(20.0, reading.getAirTemp());
+        assertEquals(Integer.MIN_VALUE, reading.getRelHum(), "A value that does not fit stays out of the typed field");
+        assertEquals("n/a", reading.getExtra("rel_hum").getAsString());
+        assertTrue(Double.isNaN(reading.getDewpt()), "1.50 would not be written back the same");
+        assertEquals(30, reading.getExtra("gust").getAsJsonObject().get("kmh").getAsInt());
+        assertEquals(JsonParser.parseString(json), reading.toJsonObject());
+        String written = JsonHandling.serialize(reading, true);
+        assertTrue(written.contains("\"air_temp\":20.0"), written);
+        assertTrue(written.contains("\"lat\":40,"), written);
+        assertTrue(written.contains("\"dewpt\":1.50"), written);
+
+        // a record survives the snapshot and log format unchanged
+        WeatherFormat record = WeatherFormat.of(3, "source", reading);
+        WeatherFormat restored = JsonHandling.convertObject(JsonHandling.convertJSON(record), WeatherFormat.class);
+        assertEquals(written, JsonHandling.serialize(restored.getReading(), true));
+
+        List<WeatherReading> batch = WeatherReading.readAll(new StringReader("{\"id\":\"A\"}\n[{\"id\":\"B\"}, 7]\n{\"id\":\"C\"}"));
+        assertEquals(4, batch.size());
+        assertEquals("B", batch.get(1).getId());
+        assertNull(batch.get(2));
+        assertEquals("C", batch.get(3).getId());
+        assertNull(WeatherReading.read(new StringReader("[1]")));
+    }
+
+    @Test
+    void testDuplicateNameKeepsLaterValue() {
+        WeatherReading reading = WeatherReading.read(new StringReader("{\"id\":\"IDS1\",\"lat\":\"x\",\"lat\":1.5,\"lon\":2.5,\"lon\":\"y\"}"));
+        assertEquals(1.5, reading.getLat());
+        assertNull(reading.getExtra("lat"), "The earlier value that did not fit is dropped");
+        assertTrue(Double.isNaN(reading.getLon()), "The earlier typed value is dropped");
+        assertEquals("y", reading.getExtra("lon").getAsString());
+        assertEquals("{\"id\":\"IDS1\",\"lat\":1.5,\"lon\":\"y\"}", JsonHandling.serialize(reading, true),
+            "Every name is written once");
+    }
+}
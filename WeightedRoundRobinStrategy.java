@@ -0,0 +1,66 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Rotates over the servers, giving each as many consecutive turns as its weight.
+ * With no weights every server gets one turn, which is plain round-robin.
+ */
+public class WeightedRoundRobinStrategy implements LoadBalancingStrategy {
+    private final int[] weights;
+    private final AtomicLong turn = new AtomicLong();
+
+    /**
+     * @param weights Weights in server order; servers without a weight get 1.
+     */
+    public WeightedRoundRobinStrategy(int[] weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Parses the --weights option.
+     * @param option Comma separated positive integers, e.g. "3,1,1" (may be null).
+     * @return The weights, empty if none were given.
+     */
+    public static int[] parseWeights(String option) {
+        if (option == null || option.isEmpty()) {
+            return new int[0];
+        }
+        String[] parts = option.split(",");
+        int[] weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            weights[i] = Math.max(1, Integer.parseInt(parts[i].trim()));
+        }
+        return weights;
+    }
+
+    private int weight(int index) {
+        return index < this.weights.length ? this.weights[index] : 1;
+    }
+
+    @Override
+    public AggregationServer select(List<AggregationServer> servers, Predicate<AggregationServer> healthy, String stationId) {
+        int total = 0;
+        for (int i = 0; i < servers.size(); i++) {
+            total += weight(i);
+        }
+        for (int attempt = 0; attempt < total; attempt++) {
+            long slot = Math.floorMod(this.turn.getAndIncrement(), (long) total);
+            int index = 0;
+            while (slot >= weight(index)) {
+                slot -= weight(index);
+                index++;
+            }
+            AggregationServer server = servers.get(index);
+            if (healthy.test(server)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String name() {
+        return "weighted";
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Append-only log of database mutations, one JSON entry per line.
+ * DatabaseManagement appends every PUT and expiry here, through its PersistenceWriter, instead of rewriting
+ * data.json, replays the log on startup and periodically compacts it into the snapshot.
+ * Appends are group committed: entries waiting for the disk are written and forced together.
+ */
+public class WriteAheadLog {
+    public static final String PUT = "PUT";
+    public static final String EXPIRE = "EXPIRE";
+    public static final String CLEAR = "CLEAR";
+
+    /**
+     * When an appended entry counts as persisted.
+     */
+    public enum Durability {
+        /** The appending thread flushes and forces the log, taking every other waiting entry along. */
+        PER_REQUEST,
+        /** A background flusher forces the log every batch interval; appenders wait for it. */
+        BATCHED,
+        /** Like BATCHED, but appenders do not wait for the disk. */
+        ASYNC;
+
+        /**
+         * Parses the value of the --durability option.
+         * @param value "per-request", "batched" or "async".
+         * @return The matching mode, PER_REQUEST when the value is unknown.
+         */
+        public static Durability fromOption(String value) {
+            if ("batched".equalsIgnoreCase(value)) return BATCHED;
+            if ("async".equalsIgnoreCase(value)) return ASYNC;
+            return PER_REQUEST;
+        }
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private volatile int entries;
+    private Durability durability = Durability.PER_REQUEST;
+    private ScheduledExecutorService flusher;
+    private List<byte[]> pendingLines = new ArrayList<>();
+    private List<CompletableFuture<Void>> pendingFutures = new ArrayList<>();
+    private final Object pendingLock = new Object();
+
+    /**
+     * A single logged mutation.
+     * PUT carries the station, the record and the sender timestamp; EXPIRE only the expired source;
+     * CLEAR nothing, it drops everything logged before it.
+     */
+    public static class Entry {
+        String op;
+        String station;
+        String source;
+        long time;
+        WeatherFormat record;
+
+        public static Entry put(String station, WeatherFormat record, long time) {
+            Entry entry = new Entry();
+            entry.op = PUT;
+            entry.station = station;
+            entry.source = record.getSource();
+            entry.time = time;
+            entry.record = record;
+            return entry;
+        }
+
+        public static Entry expire(String source) {
+            Entry entry = new Entry();
+            entry.op = EXPIRE;
+            entry.source = source;
+            return entry;
+        }
+
+        public static Entry clear() {
+            Entry entry = new Entry();
+            entry.op = CLEAR;
+            return entry;
+        }
+    }
+
+    public WriteAheadLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Changes when appended entries count as persisted.
+     * @param durability The durability mode.
+     * @param batchMillis The flush interval used by BATCHED and ASYNC.
+     */
+    public void setDurability(Durability durability, long batchMillis) {
+        synchronized (this.pendingLock) {
+            this.durability = durability;
+            if (this.flusher != null) {
+                this.flusher.shutdown();
+                this.flusher = null;
+            }
+            if (durability != Durability.PER_REQUEST) {
+                this.flusher = Executors.newSingleThreadScheduledExecutor(ServerThreads.factory("wal-flusher", false));
+                this.flusher.scheduleAtFixedRate(this::flushQuietly, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return When appended entries count as persisted.
+     */
+    public Durability getDurability() {
+        synchronized (this.pendingLock) {
+            return this.durability;
+        }
+    }
+
+    /**
+     * Queues an entry for the next group commit.
+     * @param entry The mutation to log.
+     * @return A future completed once the entry is on disk (immediately in ASYNC mode).
+     */
+    public CompletableFuture<Void> append(Entry entry) {
+        return this.appendAll(List.of(entry));
+    }
+
+    /**
+     * Queues several entries for the same group commit, e.g. every record of a batch PUT.
+     * @param entries The mutations to log, in order.
+     * @return A future completed once all of them are on disk (immediately in ASYNC mode).
+     */
+    public CompletableFuture<Void> appendAll(List<Entry> entries) {
+        List<byte[]> lines = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            lines.add((JsonHandling.convertJSON(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        Durability mode;
+        synchronized (this.pendingLock) {
+            this.pendingLines.addAll(lines);
+            this.pendingFutures.add(durable);
+            mode = this.durability;
+        }
+        switch (mode) {
+            case ASYNC:
+                return CompletableFuture.completedFuture(null);
+            case BATCHED:
+                return durable;
+            default:
+                this.flushQuietly();
+                return durable;
+        }
+    }
+
+    /**
+     * Writes and forces every waiting entry in one go, then completes their futures.
+     * Concurrent callers coalesce: whoever holds the log lock flushes the entries of everyone queued so far.
+     * @throws IOException If the write fails; the waiting futures fail as well.
+     */
+    public synchronized void flush() throws IOException {
+        List<byte[]> lines;
+        List<CompletableFuture<Void>> futures;
+        synchronized (this.pendingLock) {
+            if (this.pendingLines.isEmpty()) return;
+            lines = this.pendingLines;
+            futures = this.pendingFutures;
+            this.pendingLines = new ArrayList<>();
+            this.pendingFutures = new ArrayList<>();
+        }
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[lines.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(lines.get(i));
+            }
+            FileChannel out = this.open();
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                out.write(buffers);
+            }
+            out.force(false);
+            this.entries += lines.size();
+            futures.forEach(f -> f.complete(null));
+        } catch (IOException e) {
+            futures.forEach(f -> f.completeExceptionally(e));
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (IOException e) {
+            System.out.println("Error flushing log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads every complete entry in the log.
+     * A torn last line left by a crash is skipped.
+     * @return The logged entries in append order.
+     * @throws IOException If the log cannot be read.
+     */
+    public synchronized List<Entry> readAll() throws IOException {
+        List<Entry> result = new ArrayList<>();
+        if (!Files.exists(this.path)) {
+            return result;
+        }
+        for (String line : Files.readAllLines(this.path, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            try {
+                Entry entry = JsonHandling.convertObject(line, Entry.class);
+                if (entry != null && entry.op != null) {
+                    result.add(entry);
+                }
+            } catch (JsonSyntaxException e) {
+                System.out.println("Skipping corrupt log entry: " + e.getMessage());
+            }
+        }
+        this.entries = result.size();
+        return result;
+    }
+
+    /**
+     * Discards every entry, called once they are part of a snapshot.
+     * Entries still waiting for a flush are covered by the snapshot, so their futures complete too.
+     * @throws IOException If the log cannot be truncated.
+     */
+    public synchronized void truncate() throws IOException {
+        List<CompletableFuture<Void>> futures;
+        synchronized (this.pendingLock) {
+            futures = this.pendingFutures;
+            this.pendingLines = new ArrayList<>();
+            this.pendingFutures = new ArrayList<>();
+        }
+        this.open().truncate(0);
+        this.entries = 0;
+        futures.forEach(f -> f.complete(null));
+    }
+
+    /**
+     * Number of entries appended since the last truncate, including those not flushed yet.
+     * @return The entry count.
+     */
+    public int size() {
+        synchronized (this.pendingLock) {
+            return this.entries + this.pendingLines.size();
+        }
+    }
+
+    /**
+     * Flushes waiting entries and closes the underlying file.
+     */
+    public synchronized void close() {
+        this.flushQuietly();
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+            this.flusher = null;
+        }
+        try {
+            if (this.channel != null) this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.channel = null;
+    }
+
+    /**
+     * Forces a directory's entries to disk, so that a file just moved into it survives a crash.
+     * Called before the log is truncated in favour of a snapshot moved into place.
+     * Skipped where directories cannot be opened for reading, e.g. on Windows.
+     * @param directory The directory.
+     * @throws IOException If the directory cannot be forced.
+     */
+    public static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // not supported on this platform
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            Files.createDirectories(this.path.toAbsolutePath().getParent());
+            this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return this.channel;
+    }
+}
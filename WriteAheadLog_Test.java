@@ -0,0 +1,93 @@
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLog_Test {
+
+    private WeatherFormat record(int lamport, String source) {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "IDS60901");
+        data.addProperty("air_temp", "13.3");
+        return new WeatherFormat(lamport, source, data);
+    }
+
+    @Test
+    void testAppendAndReadAll(@TempDir Path tempDir) throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(tempDir.resolve("data.wal"));
+        wal.append(WriteAheadLog.Entry.put("IDS60901", record(1, "A"), 100L)).join();
+        wal.append(WriteAheadLog.Entry.put("IDS60901", record(2, "B"), 200L)).join();
+        wal.append(WriteAheadLog.Entry.expire("A")).join();
+        wal.close();
+
+        List<WriteAheadLog.Entry> entries = new WriteAheadLog(tempDir.resolve("data.wal")).readAll();
+        assertEquals(3, entries.size());
+        assertEquals(WriteAheadLog.PUT, entries.get(0).op);
+        assertEquals("IDS60901", entries.get(0).station);
+        assertEquals(100L, entries.get(0).time);
+        assertEquals(2, entries.get(1).record.getLamport());
+        assertEquals("13.3", entries.get(1).record.getData().get("air_temp").getAsString());
+        assertEquals(WriteAheadLog.EXPIRE, entries.get(2).op);
+        assertEquals("A", entries.get(2).source);
+    }
+
+    @Test
+    void testTornLastLineIsSkipped(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("data.wal");
+        WriteAheadLog wal = new WriteAheadLog(file);
+        wal.append(WriteAheadLog.Entry.put("IDS60901", record(1, "A"), 100L));
+        wal.close();
+        Files.write(file, "{\"op\":\"PUT\",\"stat".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(1, new WriteAheadLog(file).readAll().size());
+    }
+
+    @Test
+    void testTruncate(@TempDir Path tempDir) throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(tempDir.resolve("data.wal"));
+        wal.append(WriteAheadLog.Entry.expire("A"));
+        assertEquals(1, wal.size());
+        wal.truncate();
+        assertEquals(0, wal.size());
+        assertTrue(wal.readAll().isEmpty());
+        wal.close();
+    }
+
+    @Test
+    void testBatchedAppendsCompleteTogether(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("data.wal");
+        WriteAheadLog wal = new WriteAheadLog(file);
+        wal.setDurability(WriteAheadLog.Durability.BATCHED, 50);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(wal.append(WriteAheadLog.Entry.put("IDS60901", record(i, "A"), i)));
+        }
+        assertFalse(futures.get(0).isDone(), "Batched appends wait for the flusher");
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(20, new WriteAheadLog(file).readAll().size());
+        wal.close();
+    }
+
+    @Test
+    void testAsyncAppendDoesNotWait(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("data.wal");
+        WriteAheadLog wal = new WriteAheadLog(file);
+        wal.setDurability(WriteAheadLog.Durability.ASYNC, 10000);
+
+        assertTrue(wal.append(WriteAheadLog.Entry.expire("A")).isDone());
+        assertEquals(1, wal.size());
+        wal.close();
+        assertEquals(1, new WriteAheadLog(file).readAll().size());
+    }
+}